@@ -0,0 +1,120 @@
+package org.atcplus.autotreechopplus.storage;
+
+import com.zaxxer.hikari.HikariConfig;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compares how player data used to be written to SQLite with how the repository writes it now.
+ * Old: default pool and journal, every change is its own transaction, written from several threads at once.
+ * New: the tuned {@link SqlitePlayerStateStore}, one writer thread and transactions of 500 rows.
+ * Run with {@code ./gradlew sqliteWriteBenchmark}, the first argument is the number of writes.
+ */
+public class SqliteWriteBenchmark {
+
+    private static final int OLD_THREADS = 8;
+    private static final int BATCH_SIZE = 500;
+
+    // The pool as it was before the tuning
+    private static class UntunedSqliteStore extends SqlitePlayerStateStore {
+
+        private final File file;
+
+        UntunedSqliteStore(Logger logger, File file) {
+            super(logger, file);
+            this.file = file;
+        }
+
+        @Override
+        protected HikariConfig createPoolConfig() {
+            HikariConfig hikariConfig = new HikariConfig();
+            hikariConfig.setJdbcUrl("jdbc:sqlite:" + file.getPath());
+            hikariConfig.setMaximumPoolSize(10);
+            return hikariConfig;
+        }
+
+        @Override
+        public void close() {
+            // No WAL to checkpoint
+            if (dataSource != null) {
+                dataSource.close();
+                dataSource = null;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int writes = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        Logger logger = Logger.getLogger("SqliteWriteBenchmark");
+        logger.setLevel(Level.WARNING);
+        File directory = Files.createTempDirectory("atc-sqlite-bench").toFile();
+        List<PlayerData> rows = createRows(writes);
+
+        PlayerStateStore oldStore = new UntunedSqliteStore(logger, new File(directory, "old.db"));
+        oldStore.open();
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(OLD_THREADS);
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (PlayerData row : rows) {
+            futures.add(executor.submit(() -> {
+                try {
+                    oldStore.saveAll(List.of(row));
+                } catch (SQLException e) {
+                    failed.incrementAndGet(); // SQLITE_BUSY
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long oldNanos = System.nanoTime() - start;
+        executor.shutdown();
+        oldStore.close();
+
+        PlayerStateStore newStore = new SqlitePlayerStateStore(logger, new File(directory, "new.db"));
+        newStore.open();
+        start = System.nanoTime();
+        for (int i = 0; i < rows.size(); i += BATCH_SIZE) {
+            newStore.saveAll(rows.subList(i, Math.min(rows.size(), i + BATCH_SIZE)));
+        }
+        long newNanos = System.nanoTime() - start;
+        newStore.close();
+
+        System.out.printf("old path: %d writes in %.1f ms (%.0f us/write), %d failed%n",
+                writes, oldNanos / 1e6, oldNanos / 1e3 / writes, failed.get());
+        System.out.printf("new path: %d writes in %.1f ms (%.0f us/write), %.0fx faster%n",
+                writes, newNanos / 1e6, newNanos / 1e3 / writes, (double) oldNanos / newNanos);
+        deleteDirectory(directory);
+    }
+
+    // Repeated players, like the same players changing again and again
+    static List<PlayerData> createRows(int count) {
+        List<PlayerData> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(new PlayerData(new UUID(i % 2000, 7), true, i, i * 3, 20000));
+        }
+        return rows;
+    }
+
+    static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
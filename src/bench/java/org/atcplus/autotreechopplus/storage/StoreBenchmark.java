@@ -0,0 +1,98 @@
+package org.atcplus.autotreechopplus.storage;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the same workload against every {@link PlayerStateStore} that needs no server: single loads,
+ * absolute flushes (saveAll) and delta flushes (applyDeltas, storage-delta-counters) in batches of 500,
+ * one bulk read and the daily reset. MySQL is left out.
+ * Every store runs twice and only the second round is printed, so the JVM is warm.
+ * Run with {@code ./gradlew storeBenchmark}, the first argument is the number of players.
+ */
+public class StoreBenchmark {
+
+    private static final int BATCH_SIZE = 500;
+    private static final int DAY = 20000;
+    private static final int TOGGLES = PlayerData.toToggles(true);
+
+    public static void main(String[] args) throws Exception {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        Logger logger = Logger.getLogger("StoreBenchmark");
+        logger.setLevel(Level.WARNING);
+
+        List<UUID> playerUUIDs = new ArrayList<>(players);
+        Random random = new Random(1);
+        for (int i = 0; i < players; i++) {
+            playerUUIDs.add(new UUID(random.nextLong(), random.nextLong()));
+        }
+
+        List<Function<File, PlayerStateStore>> stores = List.of(
+                (directory) -> new MemoryPlayerStateStore(),
+                (directory) -> new SqlitePlayerStateStore(logger, new File(directory, "player_data.db")),
+                (directory) -> new H2PlayerStateStore(logger, new File(directory, "player_data")));
+
+        for (int round = 0; round < 2; round++) {
+            for (Function<File, PlayerStateStore> factory : stores) {
+                File directory = Files.createTempDirectory("atc-store-bench").toFile();
+                PlayerStateStore store = factory.apply(directory);
+                store.open();
+                List<PlayerData> rows = new ArrayList<>(players);
+                for (UUID playerUUID : playerUUIDs) {
+                    rows.add(new PlayerData(playerUUID, true, 1, 10, DAY));
+                }
+                store.saveAll(rows);
+
+                long start = System.nanoTime();
+                for (UUID playerUUID : playerUUIDs) {
+                    store.load(playerUUID);
+                }
+                double loadSeconds = (System.nanoTime() - start) / 1e9;
+
+                start = System.nanoTime();
+                for (int i = 0; i < players; i += BATCH_SIZE) {
+                    List<PlayerData> batch = new ArrayList<>(BATCH_SIZE);
+                    for (int j = i; j < Math.min(players, i + BATCH_SIZE); j++) {
+                        batch.add(new PlayerData(playerUUIDs.get(j), true, 2, 11 + round, DAY));
+                    }
+                    store.saveAll(batch);
+                }
+                double flushSeconds = (System.nanoTime() - start) / 1e9;
+
+                start = System.nanoTime();
+                for (int i = 0; i < players; i += BATCH_SIZE) {
+                    List<PlayerDelta> batch = new ArrayList<>(BATCH_SIZE);
+                    for (int j = i; j < Math.min(players, i + BATCH_SIZE); j++) {
+                        batch.add(new PlayerDelta(playerUUIDs.get(j), false, TOGGLES, 1, 1, DAY));
+                    }
+                    store.applyDeltas(batch);
+                }
+                double deltaSeconds = (System.nanoTime() - start) / 1e9;
+
+                start = System.nanoTime();
+                int loaded = store.loadAll(playerUUIDs).size();
+                double bulkSeconds = (System.nanoTime() - start) / 1e9;
+
+                start = System.nanoTime();
+                int reset = store.resetDailyCounters(DAY + 1);
+                double resetSeconds = (System.nanoTime() - start) / 1e9;
+
+                if (round == 1) {
+                    System.out.printf("%-7s load %9.0f/s  flush %9.0f/s  delta-flush %9.0f/s  bulk-read %9.0f/s"
+                                    + "  reset %d rows in %.1f ms%n",
+                            store.getName(), players / loadSeconds, players / flushSeconds, players / deltaSeconds,
+                            loaded / bulkSeconds, reset, resetSeconds * 1000);
+                }
+                store.close();
+                SqliteWriteBenchmark.deleteDirectory(directory);
+            }
+        }
+    }
+}
@@ -5,10 +5,8 @@ import de.cubbossa.tinytranslations.libs.kyori.adventure.text.ComponentLike;
 import de.cubbossa.tinytranslations.storage.properties.PropertiesMessageStorage;
 import de.cubbossa.tinytranslations.storage.properties.PropertiesStyleStorage;
 import org.bukkit.Bukkit;
-import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.block.Block;
-import org.bukkit.block.data.BlockData;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
@@ -16,20 +14,34 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.player.PlayerToggleSneakEvent;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.atcplus.autotreechopplus.chop.ChopScheduler;
+import org.atcplus.autotreechopplus.chop.ChopSession;
 import org.atcplus.autotreechopplus.hooks.GriefPreventionHook;
+import org.atcplus.autotreechopplus.hooks.GriefPreventionListener;
 import org.atcplus.autotreechopplus.hooks.LandsHook;
+import org.atcplus.autotreechopplus.hooks.ProtectionHooks;
 import org.atcplus.autotreechopplus.hooks.ResidenceHook;
+import org.atcplus.autotreechopplus.hooks.ResidenceListener;
 import org.atcplus.autotreechopplus.hooks.WorldGuardHook;
+import org.atcplus.autotreechopplus.storage.DailyResetService;
+import org.atcplus.autotreechopplus.storage.EpochDayClock;
+import org.atcplus.autotreechopplus.storage.PlayerConfigCache;
+import org.atcplus.autotreechopplus.storage.PlayerDataRepository;
 import org.atcplus.autotreechopplus.utils.CooldownManager;
 import org.atcplus.autotreechopplus.utils.EffectUtils;
+import org.atcplus.autotreechopplus.utils.LeafRemovalUtils;
 import org.atcplus.autotreechopplus.utils.PermissionUtils;
 import org.atcplus.autotreechopplus.utils.TreeChopUtils;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class AutoTreeChopPlus extends JavaPlugin implements Listener, CommandExecutor {
 
@@ -74,25 +86,25 @@ public class AutoTreeChopPlus extends JavaPlugin implements Listener, CommandExe
             "1.18.2", "1.18.1", "1.18",
             "1.17.1", "1.17"
     );
-    private final Set<Location> checkedLocations = new HashSet<>();
-    private final Set<Location> processingLocations = new HashSet<>();
+    // Chops that are still breaking their tree
+    private final Set<ChopSession> chopSessions = ConcurrentHashMap.newKeySet();
     private Config config; // Instance of your Config class
     private AutoTreeChopPlusAPI autoTreeChopPlusAPI;
-    private Map<UUID, PlayerConfig> playerConfigs;
+    private PlayerDataRepository playerDataRepository;
+    private PlayerConfigCache playerConfigCache;
+    private DailyResetService dailyResetService;
     private String bukkitVersion = this.getServer().getBukkitVersion();
     private Metrics metrics;
     private MessageTranslator translations;
 
-    private boolean worldGuardEnabled = false;
-    private boolean residenceEnabled = false;
-    private boolean griefPreventionEnabled = false;
-    private boolean landsEnabled = false;
     private WorldGuardHook worldGuardHook = null;
     private ResidenceHook residenceHook = null;
     private GriefPreventionHook griefPreventionHook = null;
     private LandsHook landsHook = null;
+    private ProtectionHooks protectionHooks;
 
     private CooldownManager cooldownManager;
+    private ChopScheduler chopScheduler;
     private boolean enableSneakToggle = true; // Configuration option for the sneak toggle feature
 
     public static void sendMessage(CommandSender sender, ComponentLike message) {
@@ -114,6 +126,13 @@ public class AutoTreeChopPlus extends JavaPlugin implements Listener, CommandExe
         // Initialize Config
         config = new Config(this);
 
+        // One connection pool for all player data
+        playerDataRepository = new PlayerDataRepository(getLogger(), new EpochDayClock(config.getDailyResetZone()));
+        playerDataRepository.open(config, getDataFolder());
+        playerConfigCache = new PlayerConfigCache(playerDataRepository, config);
+        dailyResetService = new DailyResetService(this, playerDataRepository, playerConfigCache);
+        dailyResetService.start();
+
         // Bukkit version checker
         // Put your version check *after* loading the config, in case you add version-specific settings.
         if (bukkitVersion.length() > 14) {
@@ -148,11 +167,27 @@ public class AutoTreeChopPlus extends JavaPlugin implements Listener, CommandExe
             getLogger().warning("PlaceholderAPI not found. Placeholder expansion for AutoTreeChopPlus will not work.");
         }
         autoTreeChopPlusAPI = new AutoTreeChopPlusAPI(this);
-        playerConfigs = new HashMap<>();
+        // Players that are already online, e.g. after a reload
+        List<UUID> onlinePlayers = new ArrayList<>();
+        for (Player player : getServer().getOnlinePlayers()) {
+            onlinePlayers.add(player.getUniqueId());
+        }
+        playerConfigCache.joinAll(onlinePlayers);
         initializeHooks(); // Initialize protection plugin hooks
+        protectionHooks = new ProtectionHooks(residenceHook, landsHook, griefPreventionHook, worldGuardHook);
+        // Forget cached protection decisions when claims change
+        if (residenceHook != null) {
+            getServer().getPluginManager().registerEvents(new ResidenceListener(protectionHooks), this);
+        }
+        if (griefPreventionHook != null) {
+            getServer().getPluginManager().registerEvents(new GriefPreventionListener(protectionHooks), this);
+        }
 
         cooldownManager = new CooldownManager(this);
 
+        chopScheduler = new ChopScheduler(this, config);
+        chopScheduler.start();
+
         // Load the enableSneakToggle option from config
         enableSneakToggle = config.getSneakToggle();
     }
@@ -163,40 +198,28 @@ public class AutoTreeChopPlus extends JavaPlugin implements Listener, CommandExe
         if (Bukkit.getPluginManager().getPlugin("Residence") != null) {
             try {
                 residenceHook = new ResidenceHook(config.getResidenceFlag());
-                residenceEnabled = true;
                 getLogger().info("Residence support enabled");
             } catch (Exception e) {
                 getLogger().warning("Residence can't be hook, please report this to our GitHub: https://github.com/ATCPlus/AutoTreeChopPlus/issues");
-                residenceEnabled = false;
             }
-        } else {
-            residenceEnabled = false;
         }
         // GriefPrevention hook initialization
         if (Bukkit.getPluginManager().getPlugin("GriefPrevention") != null) {
             try {
                 griefPreventionHook = new GriefPreventionHook(config.getGriefPreventionFlag());
-                griefPreventionEnabled = true;
                 getLogger().info("GriefPrevention support enabled");
             } catch (Exception e) {
                 getLogger().warning("GriefPrevention can't be hook, please report this to our GitHub: https://github.com/ATCPlus/AutoTreeChopPlus/issues");
-                griefPreventionEnabled = false;
             }
-        } else {
-            griefPreventionEnabled = false;
         }
         // Lands hook initialization
         if (Bukkit.getPluginManager().getPlugin("Lands") != null) {
             try {
                 landsHook = new LandsHook(this);
-                landsEnabled = true;
                 getLogger().info("Lands support enabled");
             } catch (Exception e) {
                 getLogger().warning("Lands can't be hook, please report this to our GitHub: https://github.com/ATCPlus/AutoTreeChopPlus/issues");
-                landsEnabled = false;
             }
-        } else {
-            landsEnabled = false;
         }
         // Initialize WorldGuard support
         if (Bukkit.getPluginManager().getPlugin("WorldGuard") != null) {
@@ -205,10 +228,7 @@ public class AutoTreeChopPlus extends JavaPlugin implements Listener, CommandExe
                 getLogger().info("WorldGuard support enabled");
             } catch (NoClassDefFoundError e) {
                 getLogger().warning("WorldGuard can't be hook, please report this to our GitHub: https://github.com/ATCPlus/AutoTreeChopPlus/issues");
-                worldGuardEnabled = false;
             }
-        } else {
-            worldGuardEnabled = false;
         }
     }
 
@@ -235,8 +255,18 @@ public class AutoTreeChopPlus extends JavaPlugin implements Listener, CommandExe
 
     @Override
     public void onDisable() {
+        if (chopScheduler != null) {
+            chopScheduler.shutdown();
+        }
+        LeafRemovalUtils.clearSessions();
         translations.close();
         metrics.shutdown();
+        if (dailyResetService != null) {
+            dailyResetService.stop();
+        }
+        if (playerDataRepository != null) {
+            playerDataRepository.close();
+        }
     }
 
     @EventHandler(priority = EventPriority.HIGH)
@@ -247,8 +277,14 @@ public class AutoTreeChopPlus extends JavaPlugin implements Listener, CommandExe
         Block block = event.getBlock();
         ItemStack tool = player.getInventory().getItemInMainHand();
 
-        // Skip if this block is already being processed
-        if (processingLocations.contains(block.getLocation())) {
+        // Skip the BlockBreakEvent a chop fires for its own blocks
+        for (ChopSession session : chopSessions) {
+            if (session.isProcessing(block)) {
+                return;
+            }
+        }
+        // Same for the leaves a leaf removal breaks, they must not run into the cooldown of the chop
+        if (LeafRemovalUtils.isRemovingLeaf(block)) {
             return;
         }
 
@@ -261,10 +297,16 @@ public class AutoTreeChopPlus extends JavaPlugin implements Listener, CommandExe
         }
 
         Material material = block.getType();
-        Location location = block.getLocation();
-        BlockData blockData = block.getBlockData();
 
         if (playerConfig.isAutoTreeChopPlusEnabled() && TreeChopUtils.isLog(material, config)) {
+            // The log is already being chopped, break it normally instead of starting and counting a second chop
+            if (isPartOfActiveChop(block)) {
+                return;
+            }
+            // The player's limits are not known yet
+            if (playerConfigCache.isLoading(playerUUID)) {
+                return;
+            }
             if (!PermissionUtils.hasVipBlock(player, playerConfig, config)) {
                 if (playerConfig.getDailyBlocksBroken() >= config.getMaxBlocksPerDay()) {
                     EffectUtils.sendMaxBlockLimitReachedMessage(player, block, HIT_MAX_BLOCK_MESSAGE);
@@ -282,14 +324,65 @@ public class AutoTreeChopPlus extends JavaPlugin implements Listener, CommandExe
             }
 
             event.setCancelled(true);
-            checkedLocations.clear();
-            TreeChopUtils.chopTree(block, player, config.isStopChoppingIfNotConnected(), tool, location, material, blockData, this, processingLocations, checkedLocations, config, playerConfig, worldGuardEnabled, residenceEnabled, griefPreventionEnabled, landsEnabled, landsHook, residenceHook, griefPreventionHook, worldGuardHook); // Pass config values
-            checkedLocations.clear();
+            ChopSession session = new ChopSession(this, player, playerConfig, tool, block);
+            chopSessions.add(session);
+            try {
+                TreeChopUtils.chopTree(session);
+            } catch (RuntimeException e) {
+                session.finish();
+                throw e;
+            }
             playerConfig.incrementDailyUses();
             cooldownManager.setCooldown(player, playerUUID, config); // Pass config values
         }
     }
 
+    private boolean isPartOfActiveChop(Block block) {
+        for (ChopSession session : chopSessions) {
+            if (session.isPartOfTree(block)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Load the player's data before they join, this event is called off the server thread
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            playerConfigCache.preload(event.getUniqueId());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        playerConfigCache.join(event.getPlayer().getUniqueId());
+    }
+
+    /**
+     * Write the player's pending changes when they leave, and drop their data after a grace period
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        UUID playerUUID = event.getPlayer().getUniqueId();
+        playerConfigCache.quit(playerUUID);
+
+        Runnable evictTask = () -> {
+            // Keep the data if the player came back in the meantime
+            if (getServer().getPlayer(playerUUID) == null) {
+                playerConfigCache.evict(playerUUID);
+            }
+        };
+        long delayTicks = config.getPlayerDataGraceSeconds() * 20L;
+        if (isFolia()) {
+            getServer().getGlobalRegionScheduler().runDelayed(this, (task) -> evictTask.run(), delayTicks);
+        } else {
+            Bukkit.getScheduler().runTaskLater(this, evictTask, delayTicks);
+        }
+    }
+
     /**
      * Event handler for player sneak toggle
      * When a player toggles sneak, enable or disable AutoTreeChop
@@ -325,12 +418,7 @@ public class AutoTreeChopPlus extends JavaPlugin implements Listener, CommandExe
     }
 
     public PlayerConfig getPlayerConfig(UUID playerUUID) {
-        PlayerConfig playerConfig = playerConfigs.get(playerUUID);
-        if (playerConfig == null) {
-            playerConfig = new PlayerConfig(this, playerUUID, config.isUseMysql(), config.getHostname(), config.getDatabase(), config.getPort(), config.getUsername(), config.getPassword(), config.getDefaultTreeChop());
-            playerConfigs.put(playerUUID, playerConfig);
-        }
-        return playerConfig;
+        return playerConfigCache.get(playerUUID, getServer().getPlayer(playerUUID) != null);
     }
 
     public int getPlayerDailyUses(UUID playerUUID) {
@@ -345,6 +433,22 @@ public class AutoTreeChopPlus extends JavaPlugin implements Listener, CommandExe
         return autoTreeChopPlusAPI;
     }
 
+    public PlayerDataRepository getPlayerDataRepository() {
+        return playerDataRepository;
+    }
+
+    public ChopScheduler getChopScheduler() {
+        return chopScheduler;
+    }
+
+    public ProtectionHooks getProtectionHooks() {
+        return protectionHooks;
+    }
+
+    public void unregisterChopSession(ChopSession session) {
+        chopSessions.remove(session);
+    }
+
     public Config getPluginConfig() {
         return config;
     }
@@ -7,6 +7,8 @@ import org.bukkit.configuration.file.YamlConfiguration;
 
 import java.io.File;
 import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.ZoneId;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -24,11 +26,23 @@ public class Config {
     private boolean stopChoppingIfNotConnected;
     private boolean stopChoppingIfDifferentTypes;
     private boolean chopTreeAsync;
+    private long chopBudgetNanosPerTick;
+    private int chopScanRadius;
+    private boolean aggregateDrops;
+    private boolean aggregateDropsToInventory;
     private String residenceFlag;
     private String griefPreventionFlag;
     private Locale locale;
     private boolean useClientLocale;
     private boolean useMysql;
+    private String storageType;
+    private boolean storageDeltaCounters;
+    private boolean storageJournal;
+    private long storageJournalSyncMillis;
+    private long storageFlushIntervalMillis;
+    private int playerDataGraceSeconds;
+    private int offlinePlayerCacheSize;
+    private ZoneId dailyResetZone;
     private String hostname;
     private int port;
     private String database;
@@ -111,12 +125,28 @@ public class Config {
         stopChoppingIfNotConnected = config.getBoolean("stopChoppingIfNotConnected");
         stopChoppingIfDifferentTypes = config.getBoolean("stopChoppingIfDifferentTypes");
         chopTreeAsync = config.getBoolean("chopTreeAsync");
+        chopBudgetNanosPerTick = Math.max(0L, config.getLong("chop-budget-nanos-per-tick"));
+        chopScanRadius = Math.max(1, config.getInt("chop-scan-radius"));
+        aggregateDrops = config.getBoolean("aggregate-drops");
+        aggregateDropsToInventory = config.getBoolean("aggregate-drops-to-inventory");
         residenceFlag = config.getString("residenceFlag");
         griefPreventionFlag = config.getString("griefPreventionFlag");
         cooldownTime = config.getInt("cooldownTime");
         vipCooldownTime = config.getInt("vipCooldownTime");
         useClientLocale = config.getBoolean("use-player-locale");
         useMysql = config.getBoolean("useMysql");
+        storageType = config.getString("storage-type", "");
+        if (storageType == null || storageType.isBlank()) {
+            storageType = useMysql ? "mysql" : "sqlite";
+        }
+        storageDeltaCounters = config.getBoolean("storage-delta-counters");
+        storageJournal = config.getBoolean("storage-journal");
+        storageJournalSyncMillis = Math.max(50, config.getInt("storage-journal-sync-millis"));
+        storageFlushIntervalMillis = Math.max(1, config.getInt("storage-flush-interval-seconds")) * 1000L;
+        playerDataGraceSeconds = Math.max(0, config.getInt("player-data-grace-seconds"));
+        // At least one, a preloaded player has to stay cached until the join picks it up
+        offlinePlayerCacheSize = Math.max(1, config.getInt("offline-player-cache-size"));
+        dailyResetZone = loadZone(config.getString("daily-reset-time-zone"));
         hostname = config.getString("hostname");
         port = config.getInt("port");
         database = config.getString("database");
@@ -203,6 +233,19 @@ public class Config {
         }
     }
 
+    // Empty means the server's time zone
+    private ZoneId loadZone(String zone) {
+        if (zone == null || zone.isBlank()) {
+            return ZoneId.systemDefault();
+        }
+        try {
+            return ZoneId.of(zone.trim());
+        } catch (DateTimeException e) {
+            plugin.getLogger().warning("Invalid daily-reset-time-zone in config.yml: " + zone + ". Using the server's time zone");
+            return ZoneId.systemDefault();
+        }
+    }
+
 
     private FileConfiguration getDefaultConfig() {
         FileConfiguration defaultConfig = new YamlConfiguration();
@@ -215,8 +258,20 @@ public class Config {
         defaultConfig.set("stopChoppingIfNotConnected", false);
         defaultConfig.set("stopChoppingIfDifferentTypes", false);
         defaultConfig.set("chopTreeAsync", true);
+        defaultConfig.set("chop-budget-nanos-per-tick", 2000000L);
+        defaultConfig.set("chop-scan-radius", 16);
+        defaultConfig.set("aggregate-drops", false);
+        defaultConfig.set("aggregate-drops-to-inventory", false);
         defaultConfig.set("use-player-locale", false);
         defaultConfig.set("useMysql", false);
+        defaultConfig.set("storage-type", "");
+        defaultConfig.set("storage-delta-counters", false);
+        defaultConfig.set("storage-journal", true);
+        defaultConfig.set("storage-journal-sync-millis", 1000);
+        defaultConfig.set("storage-flush-interval-seconds", 5);
+        defaultConfig.set("player-data-grace-seconds", 60);
+        defaultConfig.set("offline-player-cache-size", 256);
+        defaultConfig.set("daily-reset-time-zone", "");
         defaultConfig.set("hostname", "example.com");
         defaultConfig.set("port", 3306);
         defaultConfig.set("database", "example");
@@ -326,6 +381,22 @@ public class Config {
         return chopTreeAsync;
     }
 
+    public long getChopBudgetNanosPerTick() {
+        return chopBudgetNanosPerTick;
+    }
+
+    public int getChopScanRadius() {
+        return chopScanRadius;
+    }
+
+    public boolean isAggregateDrops() {
+        return aggregateDrops;
+    }
+
+    public boolean isAggregateDropsToInventory() {
+        return aggregateDropsToInventory;
+    }
+
     public String getResidenceFlag() {
         return residenceFlag;
     }
@@ -346,6 +417,41 @@ public class Config {
         return useMysql;
     }
 
+    /**
+     * sqlite, mysql, mariadb, h2 or memory, falls back to useMysql when storage-type is not set
+     */
+    public String getStorageType() {
+        return storageType;
+    }
+
+    public boolean isStorageDeltaCounters() {
+        return storageDeltaCounters;
+    }
+
+    public boolean isStorageJournal() {
+        return storageJournal;
+    }
+
+    public long getStorageJournalSyncMillis() {
+        return storageJournalSyncMillis;
+    }
+
+    public long getStorageFlushIntervalMillis() {
+        return storageFlushIntervalMillis;
+    }
+
+    public int getPlayerDataGraceSeconds() {
+        return playerDataGraceSeconds;
+    }
+
+    public int getOfflinePlayerCacheSize() {
+        return offlinePlayerCacheSize;
+    }
+
+    public ZoneId getDailyResetZone() {
+        return dailyResetZone;
+    }
+
     public String getHostname() {
         return hostname;
     }
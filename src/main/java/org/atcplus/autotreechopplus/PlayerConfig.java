@@ -1,176 +1,204 @@
 ﻿package org.atcplus.autotreechopplus;
 
-import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
+import org.atcplus.autotreechopplus.storage.EpochDayClock;
+import org.atcplus.autotreechopplus.storage.PlayerData;
+import org.atcplus.autotreechopplus.storage.PlayerDelta;
+import org.atcplus.autotreechopplus.storage.PlayerDataRepository;
 
-import java.sql.*;
-import java.time.LocalDate;
 import java.util.UUID;
 
-import static org.bukkit.Bukkit.getLogger;
-
 public class PlayerConfig {
 
-    private final AutoTreeChopPlus plugin;
+    private final PlayerDataRepository repository;
+    private final EpochDayClock clock;
     private final UUID playerUUID;
-    private final Connection connection;
     private boolean autoTreeChopPlusEnabled;
     private int dailyUses;
     private int dailyBlocksBroken;
-    private LocalDate lastUseDate;
-
-    public PlayerConfig(AutoTreeChopPlus plugin, UUID playerUUID, boolean useMysql, String hostname, String database, int port, String username, String password, boolean defaultTreeChop) {
+    private int lastUseDay; // Epoch day the daily counters belong to
+    // Changes since the last delta flush, see PlayerDelta
+    private int pendingUses;
+    private int pendingBlocksBroken;
+    private boolean togglesChanged;
+    // The stored row wasn't read (yet), so this state must never overwrite it, see PlayerDataRepository#load
+    private boolean unsynced;
+
+    public PlayerConfig(PlayerDataRepository repository, UUID playerUUID, boolean autoTreeChopPlusEnabled,
+                        int dailyUses, int dailyBlocksBroken, int lastUseDay) {
+        this.repository = repository;
+        this.clock = repository.getClock();
         this.playerUUID = playerUUID;
-        this.plugin = plugin;
-        this.connection = establishConnection(useMysql, hostname, port, database, username, password);
-        createTable();
-        loadConfig(defaultTreeChop);
-    }
-
-    private Connection establishConnection(boolean useMysql, String hostname, int port, String database, String username, String password) {
-        if (useMysql) {
-            try {
-                HikariConfig config = new HikariConfig();
-                config.setJdbcUrl("jdbc:mysql://" + hostname + ":" + port + "/" + database);
-                config.setUsername(username);
-                config.setPassword(password);
-                config.setMaximumPoolSize(10);
-
-                HikariDataSource dataSource = new HikariDataSource(config);
-                return dataSource.getConnection();
-            } catch (Exception e) {
-                plugin.getLogger().warning("Error establishing MySQL connection: " + e.getMessage());
-                return null;
-            }
-        } else {
-            try {
-                HikariConfig config = new HikariConfig();
-                config.setJdbcUrl("jdbc:sqlite:plugins/AutoTreeChopPlus/player_data.db");
-                config.setMaximumPoolSize(10);
-
-                HikariDataSource dataSource = new HikariDataSource(config);
-                return dataSource.getConnection();
-            } catch (Exception e) {
-                plugin.getLogger().warning("Error establishing SQLite connection: " + e.getMessage());
-                return null;
-            }
+        this.autoTreeChopPlusEnabled = autoTreeChopPlusEnabled;
+        this.dailyUses = dailyUses;
+        this.dailyBlocksBroken = dailyBlocksBroken;
+        this.lastUseDay = lastUseDay;
+    }
+
+    public UUID getPlayerUUID() {
+        return playerUUID;
+    }
+
+    public synchronized int getLastUseDay() {
+        return lastUseDay;
+    }
+
+    /**
+     * Marks the data as defaults that stand in for a row that couldn't be read or is still being read.
+     * Until the stored totals are brought in it is only written as a delta.
+     */
+    public synchronized void markUnsynced() {
+        unsynced = true;
+    }
+
+    public synchronized boolean isUnsynced() {
+        return unsynced;
+    }
+
+    /**
+     * Copy of the current state for the repository's writer thread
+     */
+    public synchronized PlayerData snapshot() {
+        return new PlayerData(playerUUID, autoTreeChopPlusEnabled, dailyUses, dailyBlocksBroken, lastUseDay);
+    }
+
+    /**
+     * Takes the changes since the last call, for databases shared by several servers
+     */
+    public synchronized PlayerDelta takeDelta() {
+        PlayerDelta delta = new PlayerDelta(playerUUID, togglesChanged, PlayerData.toToggles(autoTreeChopPlusEnabled),
+                pendingUses, pendingBlocksBroken, lastUseDay);
+        pendingUses = 0;
+        pendingBlocksBroken = 0;
+        togglesChanged = false;
+        return delta;
+    }
+
+    /**
+     * Puts back a delta that could not be written
+     */
+    public synchronized void restoreDelta(PlayerDelta delta) {
+        if (delta.togglesChanged()) {
+            togglesChanged = true;
+        }
+        if (delta.lastUseDay() == lastUseDay) {
+            pendingUses += delta.dailyUses();
+            pendingBlocksBroken += delta.dailyBlocksBroken();
         }
     }
 
-    private void createTable() {
-        try (PreparedStatement statement = connection.prepareStatement(
-                "CREATE TABLE IF NOT EXISTS player_data (" +
-                        "uuid VARCHAR(36) PRIMARY KEY," +
-                        "autoTreeChopPlusEnabled BOOLEAN," +
-                        "dailyUses INT," +
-                        "dailyBlocksBroken INT," +
-                        "lastUseDate VARCHAR(10));")) {
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            plugin.getLogger().warning("Error creating database table: " + e.getMessage());
+    /**
+     * Takes over the totals stored after a delta flush, which include what other servers added.
+     * Changes made since the flush started are kept on top.
+     */
+    public synchronized void applyStored(PlayerData stored) {
+        if (!togglesChanged) {
+            autoTreeChopPlusEnabled = stored.autoTreeChopPlusEnabled();
+        }
+        if (stored.lastUseDay() == lastUseDay) {
+            dailyUses = stored.dailyUses() + pendingUses;
+            dailyBlocksBroken = stored.dailyBlocksBroken() + pendingBlocksBroken;
+            // Now in line with the stored row
+            unsynced = false;
         }
     }
 
-    private void loadConfig(boolean defaultTreeChop) {
-        try (PreparedStatement statement = connection.prepareStatement("SELECT * FROM player_data WHERE uuid = ?")) {
-            statement.setString(1, playerUUID.toString());
-            ResultSet resultSet = statement.executeQuery();
-
-            if (resultSet.next()) {
-                autoTreeChopPlusEnabled = resultSet.getBoolean("autoTreeChopPlusEnabled");
-                dailyUses = resultSet.getInt("dailyUses");
-                dailyBlocksBroken = resultSet.getInt("dailyBlocksBroken");
-                lastUseDate = LocalDate.parse(resultSet.getString("lastUseDate"));
-            } else {
-                autoTreeChopPlusEnabled = defaultTreeChop;
-                dailyUses = 0;
-                dailyBlocksBroken = 0;
-                lastUseDate = LocalDate.now();
-
-                try (PreparedStatement insertStatement = connection.prepareStatement(
-                        "INSERT INTO player_data (uuid, autoTreeChopPlusEnabled, dailyUses, dailyBlocksBroken, lastUseDate) VALUES (?, ?, ?, ?, ?)")) {
-                    insertStatement.setString(1, playerUUID.toString());
-                    insertStatement.setBoolean(2, autoTreeChopPlusEnabled);
-                    insertStatement.setInt(3, dailyUses);
-                    insertStatement.setInt(4, dailyBlocksBroken);
-                    insertStatement.setString(5, lastUseDate.toString());
-                    insertStatement.executeUpdate();
-                } catch (SQLException e) {
-                    plugin.getLogger().warning("Error inserting player data into database: " + e.getMessage());
-                }
-            }
-        } catch (SQLException e) {
-            plugin.getLogger().warning("Error loading player data from database: " + e.getMessage());
+    /**
+     * Takes over the row that was read for a stand-in, see {@link #markUnsynced()}.
+     * Changes made since the stand-in was created are kept on top.
+     *
+     * @param stored The stored row, null for a new player
+     */
+    public synchronized void applyLoaded(PlayerData stored) {
+        unsynced = false;
+        if (stored == null) {
+            return;
+        }
+        if (!togglesChanged) {
+            autoTreeChopPlusEnabled = stored.autoTreeChopPlusEnabled();
         }
+        if (stored.lastUseDay() == lastUseDay) {
+            dailyUses = stored.dailyUses() + pendingUses;
+            dailyBlocksBroken = stored.dailyBlocksBroken() + pendingBlocksBroken;
+        } else if (stored.lastUseDay() > lastUseDay) {
+            dailyUses = stored.dailyUses();
+            dailyBlocksBroken = stored.dailyBlocksBroken();
+            pendingUses = 0;
+            pendingBlocksBroken = 0;
+            lastUseDay = stored.lastUseDay();
+        }
+        // A row of an older day is replaced by the counters of today
     }
 
-    public boolean isAutoTreeChopPlusEnabled() {
+    public synchronized boolean isAutoTreeChopPlusEnabled() {
         return autoTreeChopPlusEnabled;
     }
 
-    public void setAutoTreeChopPlusEnabled(boolean enabled) {
+    public synchronized void setAutoTreeChopPlusEnabled(boolean enabled) {
         this.autoTreeChopPlusEnabled = enabled;
+        togglesChanged = true;
         updateConfig();
     }
 
-    public int getDailyUses() {
+    public synchronized int getDailyUses() {
         checkAndUpdateDate();
         return dailyUses;
     }
 
     public void incrementDailyUses() {
-        checkAndUpdateDate();
-        dailyUses++;
-        updateConfig();
+        // The journal entry and the change have to end up in the same flush
+        synchronized (repository.getIncrementLock()) {
+            synchronized (this) {
+                checkAndUpdateDate();
+                dailyUses++;
+                pendingUses++;
+                repository.journalIncrement(playerUUID, lastUseDay, 1, 0);
+                updateConfig();
+            }
+        }
     }
 
-    public int getDailyBlocksBroken() {
+    public synchronized int getDailyBlocksBroken() {
         checkAndUpdateDate();
         return dailyBlocksBroken;
     }
 
-    private void initializeSQLiteTables(Connection connection) {
-        try (Statement statement = connection.createStatement()) {
-            String createTableQuery = "CREATE TABLE IF NOT EXISTS player_data (" +
-                    "uuid VARCHAR(36) PRIMARY KEY," +
-                    "autoTreeChopPlusEnabled BOOLEAN," +
-                    "dailyUses INT," +
-                    "dailyBlocksBroken INT," +
-                    "lastUseDate VARCHAR(10)" +
-                    ")";
-            statement.executeUpdate(createTableQuery);
-        } catch (SQLException e) {
-            plugin.getLogger().warning("Error initializing database tables: " + e.getMessage());
+    public void incrementDailyBlocksBroken() {
+        synchronized (repository.getIncrementLock()) {
+            synchronized (this) {
+                checkAndUpdateDate();
+                dailyBlocksBroken++;
+                pendingBlocksBroken++;
+                repository.journalIncrement(playerUUID, lastUseDay, 0, 1);
+                updateConfig();
+            }
         }
     }
 
-    public void incrementDailyBlocksBroken() {
-        checkAndUpdateDate();
-        dailyBlocksBroken++;
-        updateConfig();
+    /**
+     * Starts a new day with empty counters, unless the counters already belong to that day.
+     * Not marked dirty, the stored row is reset by {@link PlayerDataRepository#resetDailyCounters(int)}.
+     */
+    public synchronized void resetDay(int day) {
+        if (lastUseDay != day) {
+            dailyUses = 0;
+            dailyBlocksBroken = 0;
+            pendingUses = 0;
+            pendingBlocksBroken = 0;
+            lastUseDay = day;
+        }
     }
 
+    // Catches players that were loaded with an old day, the rollover itself is done by DailyResetService
     private void checkAndUpdateDate() {
-        if (!lastUseDate.equals(LocalDate.now())) {
-            dailyUses = 0;
-            dailyBlocksBroken = 0;
-            lastUseDate = LocalDate.now();
-            updateConfig();
+        int today = clock.today();
+        if (lastUseDay != today) {
+            resetDay(today);
         }
     }
 
+    // Changes are written in the background by the repository
     private void updateConfig() {
-        try (PreparedStatement statement = connection.prepareStatement(
-                "UPDATE player_data SET autoTreeChopPlusEnabled = ?, dailyUses = ?, dailyBlocksBroken = ?, lastUseDate = ? WHERE uuid = ?")) {
-            statement.setBoolean(1, autoTreeChopPlusEnabled);
-            statement.setInt(2, dailyUses);
-            statement.setInt(3, dailyBlocksBroken);
-            statement.setString(4, lastUseDate.toString());
-            statement.setString(5, playerUUID.toString());
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            plugin.getLogger().warning("Error updating player data in database: " + e.getMessage());
-        }
+        repository.markDirty(this);
     }
 }
 
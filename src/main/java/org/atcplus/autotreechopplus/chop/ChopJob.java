@@ -0,0 +1,26 @@
+package org.atcplus.autotreechopplus.chop;
+
+/**
+ * A piece of chopping work that can be spread over several ticks by the {@link ChopScheduler}.
+ */
+public interface ChopJob {
+
+    /**
+     * Runs one unit of work, usually breaking a single block.
+     *
+     * @return true while the job still has work left
+     */
+    boolean step();
+
+    /**
+     * Called once at the end of every tick in which the job ran, e.g. to send batched effects
+     */
+    default void endTick() {
+    }
+
+    /**
+     * Called when the job is dropped before it finished, e.g. after an error or on shutdown
+     */
+    default void cancel() {
+    }
+}
@@ -0,0 +1,141 @@
+package org.atcplus.autotreechopplus.chop;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.scheduler.BukkitTask;
+import org.atcplus.autotreechopplus.AutoTreeChopPlus;
+import org.atcplus.autotreechopplus.Config;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Central work queue for every active chop.
+ * Each tick the queue is drained until the configured time budget is used up,
+ * taking one step from each job in turn so a single large tree cannot starve other players.
+ */
+public class ChopScheduler {
+
+    private final AutoTreeChopPlus plugin;
+    private final Config config;
+    private final ArrayDeque<ChopJob> jobs = new ArrayDeque<>();
+    // Jobs that got at least one step in the current tick
+    private final Set<ChopJob> steppedJobs = Collections.newSetFromMap(new IdentityHashMap<>());
+    // On Folia every job has its own region task
+    private final Map<ChopJob, ScheduledTask> foliaJobs = new ConcurrentHashMap<>();
+    private BukkitTask tickTask;
+
+    public ChopScheduler(AutoTreeChopPlus plugin, Config config) {
+        this.plugin = plugin;
+        this.config = config;
+    }
+
+    public void start() {
+        if (AutoTreeChopPlus.isFolia()) {
+            return; // Folia has no main thread, jobs get their own region task in submit()
+        }
+        tickTask = Bukkit.getScheduler().runTaskTimer(plugin, this::tick, 1L, 1L);
+    }
+
+    public void shutdown() {
+        if (tickTask != null) {
+            tickTask.cancel();
+            tickTask = null;
+        }
+        // Let unfinished chops hand out what they already collected
+        ChopJob job;
+        while ((job = jobs.poll()) != null) {
+            runCancel(job);
+        }
+        // The region threads have stopped by now and Folia lets the shutdown thread touch every region, so the jobs are finished from here
+        for (Map.Entry<ChopJob, ScheduledTask> entry : foliaJobs.entrySet()) {
+            entry.getValue().cancel();
+            runCancel(entry.getKey());
+        }
+        foliaJobs.clear();
+    }
+
+    /**
+     * Queues a job, it starts running on the next tick.
+     * Must be called from the thread that owns the given location.
+     *
+     * @param location Where the job works, used to pick the region thread on Folia
+     * @param job      The job to run
+     */
+    public void submit(Location location, ChopJob job) {
+        if (AutoTreeChopPlus.isFolia()) {
+            // There is no shared tick on Folia, so the budget applies per job on its region thread
+            ScheduledTask task = plugin.getServer().getRegionScheduler().runAtFixedRate(plugin, location,
+                    (scheduledTask) -> runFoliaJob(scheduledTask, job), 1L, 1L);
+            foliaJobs.put(job, task);
+        } else {
+            jobs.add(job);
+        }
+    }
+
+    public int getQueuedJobs() {
+        return jobs.size();
+    }
+
+    private void tick() {
+        if (jobs.isEmpty()) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + config.getChopBudgetNanosPerTick();
+        // Always make progress, even with a tiny budget
+        do {
+            ChopJob job = jobs.poll();
+            if (job == null) {
+                break;
+            }
+            if (runStep(job)) {
+                jobs.add(job); // Back of the line, round-robin between sessions
+                steppedJobs.add(job);
+            } else {
+                steppedJobs.remove(job);
+            }
+        } while (System.nanoTime() < deadline);
+
+        // Jobs that didn't get a turn this tick have nothing to flush
+        for (ChopJob job : steppedJobs) {
+            job.endTick();
+        }
+        steppedJobs.clear();
+    }
+
+    private void runFoliaJob(ScheduledTask task, ChopJob job) {
+        long deadline = System.nanoTime() + config.getChopBudgetNanosPerTick();
+        do {
+            if (!runStep(job)) {
+                task.cancel();
+                foliaJobs.remove(job);
+                return;
+            }
+        } while (System.nanoTime() < deadline);
+        job.endTick();
+    }
+
+    private void runCancel(ChopJob job) {
+        try {
+            job.cancel();
+        } catch (Exception e) {
+            plugin.getLogger().warning("Error while finishing a chop on shutdown: " + e.getMessage());
+        }
+    }
+
+    private boolean runStep(ChopJob job) {
+        try {
+            return job.step();
+        } catch (Exception e) {
+            plugin.getLogger().warning("Error while chopping tree: " + e.getMessage());
+            job.cancel();
+            return false;
+        }
+    }
+}
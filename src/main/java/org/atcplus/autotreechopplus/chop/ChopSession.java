@@ -0,0 +1,284 @@
+package org.atcplus.autotreechopplus.chop;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.atcplus.autotreechopplus.AutoTreeChopPlus;
+import org.atcplus.autotreechopplus.Config;
+import org.atcplus.autotreechopplus.PlayerConfig;
+import org.atcplus.autotreechopplus.hooks.ProtectionCache;
+import org.atcplus.autotreechopplus.hooks.ProtectionHooks;
+import org.atcplus.autotreechopplus.utils.BlockKey;
+import org.atcplus.autotreechopplus.utils.EffectBatcher;
+import org.atcplus.autotreechopplus.utils.LongHashSet;
+import org.atcplus.autotreechopplus.utils.PermissionUtils;
+import org.atcplus.autotreechopplus.utils.TreeChopUtils;
+
+/**
+ * Everything one player's chop of one tree needs: who is chopping, with what tool,
+ * which blocks were already seen and how many more blocks the player may break.
+ * Every chop gets its own session, so concurrent chops never share state.
+ */
+public class ChopSession implements ChopJob {
+
+    private final AutoTreeChopPlus plugin;
+    private final Config config;
+    private final Player player;
+    private final PlayerConfig playerConfig;
+    private final ItemStack tool;
+    private final ProtectionHooks protectionHooks;
+    private final ProtectionCache protectionCache;
+    private final World world;
+    private final Location origin;
+    private final Material originType;
+    private final boolean connectedOnly;
+    private final int maxLogs;
+    private final LongHashSet visited = new LongHashSet();
+    // Null when drops are not aggregated
+    private final DropCollector dropCollector;
+    private final EffectBatcher effects;
+
+    // Written on the thread that owns the origin, read by the break listener of other regions on Folia
+    private volatile ScannedTree tree;
+    private int index;
+    private int blocksBroken;
+    private boolean finished;
+
+    // Tool damage is applied in batches, as long as the tool can't break from the pending blocks
+    private int pendingToolUses;
+    private int toolDurabilityLeft;
+    private boolean toolBroken;
+
+    // The block whose BlockBreakEvent we are firing right now, so our own listener can skip it
+    private volatile long processingKey;
+    private volatile boolean processing;
+
+    public ChopSession(AutoTreeChopPlus plugin, Player player, PlayerConfig playerConfig, ItemStack tool, Block origin) {
+        this.plugin = plugin;
+        this.config = plugin.getPluginConfig();
+        this.player = player;
+        this.playerConfig = playerConfig;
+        this.tool = tool;
+        this.protectionHooks = plugin.getProtectionHooks();
+        this.world = origin.getWorld();
+        this.origin = origin.getLocation();
+        this.originType = origin.getType();
+        this.protectionCache = new ProtectionCache(protectionHooks, player, world);
+        this.connectedOnly = config.isStopChoppingIfNotConnected();
+        this.maxLogs = PermissionUtils.getRemainingBlocks(player, playerConfig, config);
+        this.dropCollector = config.isAggregateDrops() ? new DropCollector() : null;
+        this.effects = new EffectBatcher(world);
+        this.toolDurabilityLeft = config.isToolDamage() ? TreeChopUtils.getRemainingDurability(tool) : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Starts breaking the scanned tree, one block per scheduler step.
+     * Must be called on the thread that owns the origin.
+     */
+    public void start(ScannedTree tree) {
+        this.tree = tree;
+        if (tree.size() > 1) {
+            // One check for the whole tree, blocks only get checked one by one if it crosses a protection border
+            protectionCache.checkArea(tree.getMinX(), tree.getMinY(), tree.getMinZ(),
+                    tree.getMaxX(), tree.getMaxY(), tree.getMaxZ());
+        }
+        plugin.getChopScheduler().submit(origin, this);
+    }
+
+    @Override
+    public boolean step() {
+        if (tree == null || index >= tree.size() || !player.isOnline()) {
+            finish();
+            return false;
+        }
+        // The first log was already checked by the caller
+        if (index > 0 && TreeChopUtils.hitDailyLimit(this)) {
+            finish();
+            return false;
+        }
+
+        if (TreeChopUtils.breakLog(this, tree.getBlock(index++))) {
+            blocksBroken++;
+        }
+        if (toolBroken || index >= tree.size()) {
+            finish();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void endTick() {
+        effects.flush();
+    }
+
+    @Override
+    public void cancel() {
+        finish();
+    }
+
+    /**
+     * Ends the chop and hands out the collected drops.
+     * Must be called on the thread that owns the origin.
+     */
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        flushToolDamage();
+        effects.flush();
+        flushDrops();
+        plugin.unregisterChopSession(this);
+    }
+
+    /**
+     * Counts one broken block towards the tool's durability loss.
+     * The loss is only applied once the pending blocks could break the tool, or when the chop ends.
+     */
+    public void damageTool() {
+        pendingToolUses++;
+        if ((long) pendingToolUses * config.getToolDamageDecrease() >= toolDurabilityLeft) {
+            flushToolDamage();
+        }
+    }
+
+    private void flushToolDamage() {
+        if (pendingToolUses == 0 || toolBroken) {
+            return;
+        }
+        int uses = pendingToolUses;
+        pendingToolUses = 0;
+        toolBroken = !TreeChopUtils.applyToolDamage(tool, player, uses, config);
+        toolDurabilityLeft = TreeChopUtils.getRemainingDurability(tool);
+    }
+
+    private void flushDrops() {
+        if (dropCollector == null || dropCollector.isEmpty()) {
+            return;
+        }
+        // On Folia the player may have walked into another region, then the drops stay at the tree
+        if (config.isAggregateDropsToInventory() && player.isOnline()
+                && (!AutoTreeChopPlus.isFolia() || Bukkit.isOwnedByCurrentRegion(player))) {
+            dropCollector.giveTo(player);
+        } else {
+            dropCollector.dropAt(world, origin.clone().add(0.5, 0.5, 0.5));
+        }
+    }
+
+    public boolean canBuild(Location location) {
+        return protectionCache.canBuild(location);
+    }
+
+    public void setProcessing(Block block) {
+        processingKey = BlockKey.of(block);
+        processing = true;
+    }
+
+    public void clearProcessing() {
+        processing = false;
+    }
+
+    /**
+     * Check if this session is currently firing the BlockBreakEvent for this block
+     */
+    public boolean isProcessing(Block block) {
+        return processing && block.getWorld().equals(world) && processingKey == BlockKey.of(block);
+    }
+
+    /**
+     * Whether the block is the origin of this chop or one of the logs it scanned.
+     * The origin only breaks once the job runs, so it counts before the tree is known.
+     */
+    public boolean isPartOfTree(Block block) {
+        if (!block.getWorld().equals(world)) {
+            return false;
+        }
+        int x = block.getX();
+        int y = block.getY();
+        int z = block.getZ();
+        if (x == origin.getBlockX() && y == origin.getBlockY() && z == origin.getBlockZ()) {
+            return true;
+        }
+        ScannedTree scanned = tree;
+        if (scanned == null || x < scanned.getMinX() || x > scanned.getMaxX() || y < scanned.getMinY()
+                || y > scanned.getMaxY() || z < scanned.getMinZ() || z > scanned.getMaxZ()) {
+            return false;
+        }
+        long key = BlockKey.pack(x, y, z);
+        for (int i = 0; i < scanned.size(); i++) {
+            if (scanned.getKey(i) == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public AutoTreeChopPlus getPlugin() {
+        return plugin;
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+
+    public PlayerConfig getPlayerConfig() {
+        return playerConfig;
+    }
+
+    public ItemStack getTool() {
+        return tool;
+    }
+
+    public ProtectionHooks getProtectionHooks() {
+        return protectionHooks;
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    public Location getOrigin() {
+        return origin;
+    }
+
+    public Material getOriginType() {
+        return originType;
+    }
+
+    public boolean isConnectedOnly() {
+        return connectedOnly;
+    }
+
+    public int getMaxLogs() {
+        return maxLogs;
+    }
+
+    public LongHashSet getVisited() {
+        return visited;
+    }
+
+    public EffectBatcher getEffects() {
+        return effects;
+    }
+
+    public DropCollector getDropCollector() {
+        return dropCollector;
+    }
+
+    public boolean isToolBroken() {
+        return toolBroken;
+    }
+
+    public int getBlocksBroken() {
+        return blocksBroken;
+    }
+}
@@ -0,0 +1,83 @@
+package org.atcplus.autotreechopplus.chop;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the drops of every block broken by one chop and merges them into full stacks,
+ * so a tree ends up as a handful of item entities instead of one per block.
+ */
+public class DropCollector {
+
+    private final List<ItemStack> stacks = new ArrayList<>();
+
+    public void add(Collection<ItemStack> drops) {
+        for (ItemStack drop : drops) {
+            add(drop);
+        }
+    }
+
+    public void add(ItemStack drop) {
+        if (drop == null || drop.getType().isAir() || drop.getAmount() <= 0) {
+            return;
+        }
+        int remaining = drop.getAmount();
+        int maxStackSize = drop.getMaxStackSize();
+
+        // Top up stacks that are not full yet
+        for (ItemStack stack : stacks) {
+            if (remaining <= 0) {
+                return;
+            }
+            if (stack.getAmount() < maxStackSize && stack.isSimilar(drop)) {
+                int moved = Math.min(remaining, maxStackSize - stack.getAmount());
+                stack.setAmount(stack.getAmount() + moved);
+                remaining -= moved;
+            }
+        }
+
+        while (remaining > 0) {
+            ItemStack stack = drop.clone();
+            int amount = Math.min(remaining, maxStackSize);
+            stack.setAmount(amount);
+            stacks.add(stack);
+            remaining -= amount;
+        }
+    }
+
+    public boolean isEmpty() {
+        return stacks.isEmpty();
+    }
+
+    /**
+     * Drops everything collected so far at the given location
+     */
+    public void dropAt(World world, Location location) {
+        for (ItemStack stack : stacks) {
+            world.dropItemNaturally(location, stack);
+        }
+        stacks.clear();
+    }
+
+    /**
+     * Puts everything collected so far into the player's inventory, whatever does not fit is dropped at the player.
+     * Must be called on the thread that owns the player.
+     */
+    public void giveTo(Player player) {
+        if (stacks.isEmpty()) {
+            return;
+        }
+        Map<Integer, ItemStack> overflow = player.getInventory().addItem(stacks.toArray(new ItemStack[0]));
+        stacks.clear();
+        for (ItemStack stack : overflow.values()) {
+            player.getWorld().dropItemNaturally(player.getLocation(), stack);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.atcplus.autotreechopplus.chop;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.atcplus.autotreechopplus.utils.BlockKey;
+
+import java.util.Arrays;
+
+/**
+ * The logs of one tree in break order, plus the bounding box they span.
+ */
+public class ScannedTree {
+
+    private final World world;
+    private long[] logs = new long[32];
+    private int size;
+    private int minX = Integer.MAX_VALUE;
+    private int minY = Integer.MAX_VALUE;
+    private int minZ = Integer.MAX_VALUE;
+    private int maxX = Integer.MIN_VALUE;
+    private int maxY = Integer.MIN_VALUE;
+    private int maxZ = Integer.MIN_VALUE;
+
+    public ScannedTree(World world) {
+        this.world = world;
+    }
+
+    void add(long key) {
+        if (size == logs.length) {
+            logs = Arrays.copyOf(logs, size << 1);
+        }
+        logs[size++] = key;
+
+        int x = BlockKey.getX(key);
+        int y = BlockKey.getY(key);
+        int z = BlockKey.getZ(key);
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        minZ = Math.min(minZ, z);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+        maxZ = Math.max(maxZ, z);
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getKey(int index) {
+        return logs[index];
+    }
+
+    public Block getBlock(int index) {
+        long key = logs[index];
+        return world.getBlockAt(BlockKey.getX(key), BlockKey.getY(key), BlockKey.getZ(key));
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public int getMinZ() {
+        return minZ;
+    }
+
+    public int getMaxX() {
+        return maxX;
+    }
+
+    public int getMaxY() {
+        return maxY;
+    }
+
+    public int getMaxZ() {
+        return maxZ;
+    }
+}
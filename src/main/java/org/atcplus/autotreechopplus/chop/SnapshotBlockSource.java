@@ -0,0 +1,106 @@
+package org.atcplus.autotreechopplus.chop;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.atcplus.autotreechopplus.AutoTreeChopPlus;
+
+/**
+ * Block types of the chunks a tree reaches, captured with ChunkSnapshots
+ * so the tree can be scanned on a worker thread.
+ * Only the origin chunk is captured up front. Chunks the scan reaches later are noted as missing,
+ * the caller captures them on the owning thread and scans again.
+ * Blocks outside the scan radius or in chunks that can't be captured read as air, which makes them a scan boundary.
+ */
+public class SnapshotBlockSource implements TreeScanner.BlockSource {
+
+    private final World world;
+    private final int minChunkX;
+    private final int minChunkZ;
+    private final int chunksWide;
+    private final int chunksLong;
+    private final int minY;
+    private final int maxY;
+    private final ChunkSnapshot[] snapshots;
+    // Chunks that were tried, a tried chunk without snapshot is not loaded or owned by another region
+    private final boolean[] captured;
+    private final boolean[] missing;
+    private boolean hasMissing;
+
+    /**
+     * Captures the chunk of the origin, the other chunks within the radius are captured when the scan reaches them.
+     * Must run on the thread that owns the origin.
+     */
+    public SnapshotBlockSource(World world, int originX, int originZ, int radius) {
+        this.world = world;
+        this.minChunkX = (originX - radius) >> 4;
+        this.minChunkZ = (originZ - radius) >> 4;
+        this.chunksWide = ((originX + radius) >> 4) - minChunkX + 1;
+        this.chunksLong = ((originZ + radius) >> 4) - minChunkZ + 1;
+        this.minY = world.getMinHeight();
+        this.maxY = world.getMaxHeight();
+        this.snapshots = new ChunkSnapshot[chunksWide * chunksLong];
+        this.captured = new boolean[snapshots.length];
+        this.missing = new boolean[snapshots.length];
+        capture(index(originX >> 4, originZ >> 4));
+    }
+
+    @Override
+    public Material getType(int x, int y, int z) {
+        if (y < minY || y >= maxY) {
+            return Material.AIR;
+        }
+        int chunkX = (x >> 4) - minChunkX;
+        int chunkZ = (z >> 4) - minChunkZ;
+        if (chunkX < 0 || chunkX >= chunksWide || chunkZ < 0 || chunkZ >= chunksLong) {
+            return Material.AIR;
+        }
+        int index = chunkZ * chunksWide + chunkX;
+        if (!captured[index]) {
+            missing[index] = true;
+            hasMissing = true;
+            return Material.AIR;
+        }
+        ChunkSnapshot snapshot = snapshots[index];
+        return snapshot == null ? Material.AIR : snapshot.getBlockType(x & 15, y, z & 15);
+    }
+
+    /**
+     * Whether the last scan read a chunk that wasn't captured yet, its result is incomplete then
+     */
+    public boolean hasMissingChunks() {
+        return hasMissing;
+    }
+
+    /**
+     * Captures the chunks the last scan was missing. Must run on the thread that owns the origin.
+     */
+    public void captureMissing() {
+        for (int index = 0; index < missing.length; index++) {
+            if (missing[index]) {
+                missing[index] = false;
+                capture(index);
+            }
+        }
+        hasMissing = false;
+    }
+
+    // Chunks that are not loaded (or on Folia, owned by another region) are skipped
+    private void capture(int index) {
+        captured[index] = true;
+        int chunkX = minChunkX + index % chunksWide;
+        int chunkZ = minChunkZ + index / chunksWide;
+        if (!world.isChunkLoaded(chunkX, chunkZ)) {
+            return;
+        }
+        if (AutoTreeChopPlus.isFolia() && !Bukkit.isOwnedByCurrentRegion(world, chunkX, chunkZ)) {
+            return;
+        }
+        snapshots[index] = world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false);
+    }
+
+    private int index(int chunkX, int chunkZ) {
+        return (chunkZ - minChunkZ) * chunksWide + (chunkX - minChunkX);
+    }
+}
@@ -0,0 +1,126 @@
+package org.atcplus.autotreechopplus.chop;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.atcplus.autotreechopplus.Config;
+import org.atcplus.autotreechopplus.utils.BlockKey;
+import org.atcplus.autotreechopplus.utils.LongHashSet;
+import org.atcplus.autotreechopplus.utils.TreeChopUtils;
+
+import java.util.Arrays;
+
+public class TreeScanner {
+
+    // Face neighbours only, used when stopChoppingIfNotConnected is enabled
+    private static final int[][] FACE_OFFSETS = {
+            {1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}
+    };
+
+    // All 26 neighbours of a block
+    private static final int[][] ALL_OFFSETS = buildAllOffsets();
+
+    /**
+     * Where the scanner reads block types from. Implementations must be safe to call from the scanning thread.
+     */
+    public interface BlockSource {
+        Material getType(int x, int y, int z);
+    }
+
+    /**
+     * Reads straight from the world, only usable on the thread that owns the blocks.
+     */
+    public static BlockSource liveSource(World world) {
+        int minY = world.getMinHeight();
+        int maxY = world.getMaxHeight();
+        return (x, y, z) -> y < minY || y >= maxY ? Material.AIR : world.getBlockAt(x, y, z).getType();
+    }
+
+    /**
+     * Finds every log connected to the origin block in one breadth-first pass.
+     * The result starts with the origin and is ordered by distance from it,
+     * so breaking it front to back fells the tree from the bottom up like before.
+     *
+     * @param world         The world the tree is in
+     * @param originX       X of the log the player broke
+     * @param originY       Y of the log the player broke
+     * @param originZ       Z of the log the player broke
+     * @param originType    Type of the log the player broke
+     * @param source        Where block types are read from
+     * @param config        Plugin config (log types, type matching)
+     * @param radius        How far (horizontally) from the origin logs are followed
+     * @param connectedOnly Only follow face-adjacent blocks
+     * @param visited       Block keys already seen by this chop, filled while scanning
+     * @param maxLogs       Stop once this many logs were found, e.g. the player's remaining daily blocks
+     * @return The logs to break, in break order
+     */
+    public static ScannedTree scan(World world, int originX, int originY, int originZ, Material originType,
+                                   BlockSource source, Config config, int radius, boolean connectedOnly,
+                                   LongHashSet visited, int maxLogs) {
+        int[][] offsets = connectedOnly ? FACE_OFFSETS : ALL_OFFSETS;
+        boolean sameTypeOnly = config.isStopChoppingIfDifferentTypes();
+        ScannedTree tree = new ScannedTree(world);
+
+        // The result list doubles as the BFS queue, only logs are ever enqueued
+        long[] logs = new long[64];
+        int head = 0;
+        int tail = 0;
+
+        long originKey = BlockKey.pack(originX, originY, originZ);
+        visited.add(originKey);
+        logs[tail++] = originKey;
+
+        while (head < tail && head < maxLogs) {
+            long key = logs[head++];
+            int x = BlockKey.getX(key);
+            int y = BlockKey.getY(key);
+            int z = BlockKey.getZ(key);
+
+            for (int[] offset : offsets) {
+                int relativeX = x + offset[0];
+                int relativeY = y + offset[1];
+                int relativeZ = z + offset[2];
+                if (Math.abs(relativeX - originX) > radius || Math.abs(relativeZ - originZ) > radius) {
+                    continue;
+                }
+                long relativeKey = BlockKey.pack(relativeX, relativeY, relativeZ);
+                if (!visited.add(relativeKey)) {
+                    continue;
+                }
+
+                Material relativeType = source.getType(relativeX, relativeY, relativeZ);
+                if (!TreeChopUtils.isLog(relativeType, config)) {
+                    continue;
+                }
+                // Compare against the type of the first log, the broken block itself is already air
+                if (sameTypeOnly && relativeType != originType) {
+                    continue;
+                }
+
+                if (tail == logs.length) {
+                    logs = Arrays.copyOf(logs, logs.length << 1);
+                }
+                logs[tail++] = relativeKey;
+            }
+        }
+
+        int count = Math.min(tail, maxLogs);
+        for (int i = 0; i < count; i++) {
+            tree.add(logs[i]);
+        }
+        return tree;
+    }
+
+    private static int[][] buildAllOffsets() {
+        int[][] offsets = new int[26][];
+        int index = 0;
+        for (int yOffset = -1; yOffset <= 1; yOffset++) {
+            for (int xOffset = -1; xOffset <= 1; xOffset++) {
+                for (int zOffset = -1; zOffset <= 1; zOffset++) {
+                    if (xOffset == 0 && yOffset == 0 && zOffset == 0) continue;
+                    offsets[index++] = new int[]{xOffset, yOffset, zOffset};
+                }
+            }
+        }
+        return offsets;
+    }
+}
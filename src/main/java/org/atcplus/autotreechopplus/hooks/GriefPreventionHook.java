@@ -4,8 +4,12 @@ import me.ryanhamshire.GriefPrevention.Claim;
 import me.ryanhamshire.GriefPrevention.ClaimPermission;
 import me.ryanhamshire.GriefPrevention.GriefPrevention;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 
+import java.util.HashSet;
+import java.util.Set;
+
 public class GriefPreventionHook {
     private final String flagName;
 
@@ -14,13 +18,64 @@ public class GriefPreventionHook {
     }
 
     public boolean checkBuild(Player player, Location location) {
-        Claim claim = GriefPrevention.instance.dataStore.getClaimAt(location, false, null);
+        return checkBuild(player, getClaimAt(location, null));
+    }
+
+    /**
+     * Find the claim at the location, the cached claim is checked first
+     */
+    public Claim getClaimAt(Location location, Claim cachedClaim) {
+        return GriefPrevention.instance.dataStore.getClaimAt(location, false, cachedClaim);
+    }
+
+    /**
+     * Check if the player may break every block in the box, i.e. every claim and subdivision touching it allows the player.
+     * Unclaimed land is always allowed, so the box doesn't have to lie inside a single claim.
+     */
+    public boolean checkBuildArea(Player player, World world, int minX, int minZ, int maxX, int maxZ) {
+        Set<Claim> checked = new HashSet<>();
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                for (Claim claim : GriefPrevention.instance.dataStore.getClaims(chunkX, chunkZ)) {
+                    if (!checkBuildArea(player, claim, world, minX, minZ, maxX, maxZ, checked)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    // Claims reach up to the build limit, so only x and z matter
+    private boolean checkBuildArea(Player player, Claim claim, World world, int minX, int minZ, int maxX, int maxZ,
+                                   Set<Claim> checked) {
+        Location lesser = claim.getLesserBoundaryCorner();
+        Location greater = claim.getGreaterBoundaryCorner();
+        if (!world.equals(lesser.getWorld()) ||
+                lesser.getBlockX() > maxX || greater.getBlockX() < minX ||
+                lesser.getBlockZ() > maxZ || greater.getBlockZ() < minZ) {
+            return true;
+        }
+        if (!checked.add(claim)) {
+            return true;
+        }
+        if (!checkBuild(player, claim)) {
+            return false;
+        }
+        for (Claim child : claim.children) {
+            if (!checkBuildArea(player, child, world, minX, minZ, maxX, maxZ, checked)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
+    public boolean checkBuild(Player player, Claim claim) {
         if (claim == null) {
             return true;
         }
 
-        if (claim.getOwnerID().equals(player.getUniqueId()) ||
+        if (player.getUniqueId().equals(claim.getOwnerID()) ||
                 player.hasPermission("atcplus.op") ||
                 player.isOp()) {
             return true;
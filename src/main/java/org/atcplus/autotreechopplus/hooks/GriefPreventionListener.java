@@ -0,0 +1,41 @@
+package org.atcplus.autotreechopplus.hooks;
+
+import me.ryanhamshire.GriefPrevention.events.ClaimChangeEvent;
+import me.ryanhamshire.GriefPrevention.events.ClaimCreatedEvent;
+import me.ryanhamshire.GriefPrevention.events.ClaimDeletedEvent;
+import me.ryanhamshire.GriefPrevention.events.TrustChangedEvent;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+
+/**
+ * Drops cached protection decisions when a GriefPrevention claim or its trust list changes.
+ * Only registered when GriefPrevention is hooked.
+ */
+public class GriefPreventionListener implements Listener {
+    private final ProtectionHooks protectionHooks;
+
+    public GriefPreventionListener(ProtectionHooks protectionHooks) {
+        this.protectionHooks = protectionHooks;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onClaimCreated(ClaimCreatedEvent event) {
+        protectionHooks.invalidate();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onClaimDeleted(ClaimDeletedEvent event) {
+        protectionHooks.invalidate();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onClaimChange(ClaimChangeEvent event) {
+        protectionHooks.invalidate();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onTrustChanged(TrustChangedEvent event) {
+        protectionHooks.invalidate();
+    }
+}
@@ -4,6 +4,7 @@ import me.angeschossen.lands.api.LandsIntegration;
 import me.angeschossen.lands.api.land.LandWorld;
 import me.angeschossen.lands.api.player.LandPlayer;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
 
@@ -19,8 +20,8 @@ public class LandsHook {
             return false;
         }
 
-        LandWorld world = landsApi.getWorld(location.getWorld());
-        LandPlayer landPlayer = landsApi.getLandPlayer(player.getUniqueId());
+        LandWorld world = getLandWorld(location.getWorld());
+        LandPlayer landPlayer = getLandPlayer(player);
         if (world == null) {
             return true; // Lands is not enabled in this world
         }
@@ -29,6 +30,19 @@ public class LandsHook {
             return true;
         }
 
+        return checkBuild(world, landPlayer, location);
+    }
+
+    public LandWorld getLandWorld(World world) {
+        return landsApi.getWorld(world);
+    }
+
+    public LandPlayer getLandPlayer(Player player) {
+        return landsApi.getLandPlayer(player.getUniqueId());
+    }
+
+    // Check the break flag with an already resolved world and player, without the op bypass
+    public boolean checkBuild(LandWorld world, LandPlayer landPlayer, Location location) {
         return world.hasRoleFlag(landPlayer, location, me.angeschossen.lands.api.flags.type.Flags.BLOCK_BREAK, null, false);
     }
 } 
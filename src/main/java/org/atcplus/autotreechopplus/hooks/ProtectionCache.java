@@ -0,0 +1,202 @@
+package org.atcplus.autotreechopplus.hooks;
+
+import com.bekvon.bukkit.residence.protection.ClaimedResidence;
+import com.sk89q.worldguard.LocalPlayer;
+import com.sk89q.worldguard.protection.ApplicableRegionSet;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import com.sk89q.worldguard.protection.regions.RegionQuery;
+import me.angeschossen.lands.api.land.LandWorld;
+import me.angeschossen.lands.api.player.LandPlayer;
+import me.ryanhamshire.GriefPrevention.Claim;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the protection decisions of one player in one world for the length of a chop.
+ * Decisions are cached per protected area (residence, claim, WorldGuard region set, Lands chunk),
+ * so a tree standing in one claim costs one real permission check per plugin instead of one per block.
+ * The cache is emptied when {@link ProtectionHooks#invalidate()} is called or after a few seconds.
+ */
+public class ProtectionCache {
+
+    // Not every protection plugin tells us about changes, so never trust a decision for long
+    private static final long MAX_AGE_NANOS = 5_000_000_000L;
+
+    private final ProtectionHooks hooks;
+    private final Player player;
+    private final World world;
+    private final boolean bypass;
+
+    private final Map<String, Boolean> residenceDecisions = new ConcurrentHashMap<>();
+    private final Map<Claim, Boolean> claimDecisions = new ConcurrentHashMap<>();
+    private final Map<Set<ProtectedRegion>, Boolean> regionDecisions = new ConcurrentHashMap<>();
+    private final Map<Long, Boolean> landsDecisions = new ConcurrentHashMap<>();
+
+    // Resolved once per cache instead of once per block
+    private RegionQuery regionQuery;
+    private LocalPlayer localPlayer;
+    private LandWorld landWorld;
+    private LandPlayer landPlayer;
+    private volatile Claim lastClaim;
+
+    // A box that was checked as a whole and is allowed everywhere, null if there is none
+    private volatile int[] allowedArea;
+
+    private volatile int epoch;
+    private volatile long createdAt;
+
+    public ProtectionCache(ProtectionHooks hooks, Player player, World world) {
+        this.hooks = hooks;
+        this.player = player;
+        this.world = world;
+        this.bypass = ProtectionHooks.canBypass(player);
+        this.epoch = hooks.getEpoch();
+        this.createdAt = System.nanoTime();
+
+        WorldGuardHook worldGuardHook = hooks.getWorldGuardHook();
+        if (worldGuardHook != null) {
+            regionQuery = worldGuardHook.createQuery();
+            localPlayer = worldGuardHook.wrapPlayer(player);
+        }
+        LandsHook landsHook = hooks.getLandsHook();
+        if (landsHook != null) {
+            landWorld = landsHook.getLandWorld(world);
+            landPlayer = landsHook.getLandPlayer(player);
+        }
+    }
+
+    /**
+     * Same result as {@link ProtectionHooks#canBuild(Player, Location)}, answered from the cache where possible
+     */
+    public boolean canBuild(Location location) {
+        if (bypass) {
+            return true;
+        }
+        if (location.getWorld() != world) {
+            return hooks.canBuild(player, location);
+        }
+        expireIfStale();
+
+        int[] area = allowedArea;
+        if (area != null && contains(area, location.getBlockX(), location.getBlockY(), location.getBlockZ())) {
+            return true;
+        }
+
+        return checkResidence(location) &&
+                checkLands(location) &&
+                checkGriefPrevention(location) &&
+                checkWorldGuard(location);
+    }
+
+    /**
+     * Checks a whole box at once, e.g. the bounding box of a tree.
+     * If the player may break every block in it, later {@link #canBuild(Location)} calls inside the box
+     * are answered without asking the protection plugins again.
+     *
+     * @return true if the whole box is allowed, false if it is denied somewhere or could not be checked as a whole
+     */
+    public boolean checkArea(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        if (bypass) {
+            return true;
+        }
+        expireIfStale();
+
+        ResidenceHook residenceHook = hooks.getResidenceHook();
+        if (residenceHook != null && !residenceHook.checkBuildArea(player, world, minX, minY, minZ, maxX, maxY, maxZ)) {
+            return false;
+        }
+        if (hooks.getLandsHook() != null && landWorld != null) {
+            for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+                for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                    // Any block of the chunk will do, Lands decides per chunk
+                    Location location = new Location(world, chunkX << 4, minY, chunkZ << 4);
+                    if (!checkLands(location)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        GriefPreventionHook griefPreventionHook = hooks.getGriefPreventionHook();
+        if (griefPreventionHook != null && !griefPreventionHook.checkBuildArea(player, world, minX, minZ, maxX, maxZ)) {
+            return false;
+        }
+        WorldGuardHook worldGuardHook = hooks.getWorldGuardHook();
+        if (worldGuardHook != null && !worldGuardHook.checkBuildArea(localPlayer, world, minX, minY, minZ, maxX, maxY, maxZ)) {
+            return false;
+        }
+
+        allowedArea = new int[]{minX, minY, minZ, maxX, maxY, maxZ};
+        return true;
+    }
+
+    private static boolean contains(int[] area, int x, int y, int z) {
+        return x >= area[0] && y >= area[1] && z >= area[2] && x <= area[3] && y <= area[4] && z <= area[5];
+    }
+
+    private boolean checkResidence(Location location) {
+        ResidenceHook hook = hooks.getResidenceHook();
+        if (hook == null) {
+            return true;
+        }
+        ClaimedResidence residence = hook.getResidenceAt(location);
+        if (residence == null) {
+            return true;
+        }
+        return residenceDecisions.computeIfAbsent(residence.getName(), (name) -> hook.checkBuild(player, residence));
+    }
+
+    private boolean checkLands(Location location) {
+        LandsHook hook = hooks.getLandsHook();
+        if (hook == null || landWorld == null) {
+            return true; // Lands is not enabled in this world
+        }
+        // Lands claims whole chunks, so the chunk is the area
+        long chunkKey = ((long) (location.getBlockX() >> 4) << 32) | ((location.getBlockZ() >> 4) & 0xFFFFFFFFL);
+        return landsDecisions.computeIfAbsent(chunkKey, (key) -> hook.checkBuild(landWorld, landPlayer, location));
+    }
+
+    private boolean checkGriefPrevention(Location location) {
+        GriefPreventionHook hook = hooks.getGriefPreventionHook();
+        if (hook == null) {
+            return true;
+        }
+        Claim claim = hook.getClaimAt(location, lastClaim);
+        if (claim == null) {
+            return true;
+        }
+        lastClaim = claim;
+        return claimDecisions.computeIfAbsent(claim, (key) -> hook.checkBuild(player, claim));
+    }
+
+    private boolean checkWorldGuard(Location location) {
+        WorldGuardHook hook = hooks.getWorldGuardHook();
+        if (hook == null) {
+            return true;
+        }
+        ApplicableRegionSet set = hook.getApplicableRegions(regionQuery, location);
+        // Blocks covered by the same regions get the same answer, the empty set stands for the global region
+        return regionDecisions.computeIfAbsent(new HashSet<>(set.getRegions()), (key) -> hook.checkBuild(localPlayer, set));
+    }
+
+    private void expireIfStale() {
+        int currentEpoch = hooks.getEpoch();
+        long now = System.nanoTime();
+        if (currentEpoch == epoch && now - createdAt < MAX_AGE_NANOS) {
+            return;
+        }
+        residenceDecisions.clear();
+        claimDecisions.clear();
+        regionDecisions.clear();
+        landsDecisions.clear();
+        lastClaim = null;
+        allowedArea = null;
+        epoch = currentEpoch;
+        createdAt = now;
+    }
+}
@@ -0,0 +1,73 @@
+package org.atcplus.autotreechopplus.hooks;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The protection plugin hooks that were found at startup.
+ * A hook is null when its plugin is not installed or could not be hooked.
+ */
+public class ProtectionHooks {
+
+    private final ResidenceHook residenceHook;
+    private final LandsHook landsHook;
+    private final GriefPreventionHook griefPreventionHook;
+    private final WorldGuardHook worldGuardHook;
+    // Bumped whenever a claim or region changes, so cached decisions are thrown away
+    private final AtomicInteger epoch = new AtomicInteger();
+
+    public ProtectionHooks(ResidenceHook residenceHook, LandsHook landsHook,
+                           GriefPreventionHook griefPreventionHook, WorldGuardHook worldGuardHook) {
+        this.residenceHook = residenceHook;
+        this.landsHook = landsHook;
+        this.griefPreventionHook = griefPreventionHook;
+        this.worldGuardHook = worldGuardHook;
+    }
+
+    /**
+     * Check if the player may break blocks at this location in every hooked protection plugin.
+     * It will return true if player have permission, and vice versa.
+     */
+    public boolean canBuild(Player player, Location location) {
+        return (residenceHook == null || residenceHook.checkBuild(player, location)) &&
+                (landsHook == null || landsHook.checkBuild(player, location)) &&
+                (griefPreventionHook == null || griefPreventionHook.checkBuild(player, location)) &&
+                (worldGuardHook == null || worldGuardHook.checkBuild(player, location));
+    }
+
+    /**
+     * Players with this bypass may break blocks anywhere, whatever the protection plugins say
+     */
+    public static boolean canBypass(Player player) {
+        return player.hasPermission("atcplus.op") || player.isOp();
+    }
+
+    /**
+     * Throws away every cached protection decision, call this when a claim or region changed
+     */
+    public void invalidate() {
+        epoch.incrementAndGet();
+    }
+
+    public int getEpoch() {
+        return epoch.get();
+    }
+
+    public ResidenceHook getResidenceHook() {
+        return residenceHook;
+    }
+
+    public LandsHook getLandsHook() {
+        return landsHook;
+    }
+
+    public GriefPreventionHook getGriefPreventionHook() {
+        return griefPreventionHook;
+    }
+
+    public WorldGuardHook getWorldGuardHook() {
+        return worldGuardHook;
+    }
+}
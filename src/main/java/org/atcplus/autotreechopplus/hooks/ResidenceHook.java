@@ -1,11 +1,19 @@
 ﻿package org.atcplus.autotreechopplus.hooks;
 
+import com.bekvon.bukkit.residence.Residence;
 import com.bekvon.bukkit.residence.api.ResidenceApi;
 import com.bekvon.bukkit.residence.containers.Flags;
 import com.bekvon.bukkit.residence.protection.ClaimedResidence;
+import com.bekvon.bukkit.residence.protection.CuboidArea;
+import com.bekvon.bukkit.residence.protection.ResidenceManager;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 public class ResidenceHook {
     private final String flagName;
 
@@ -14,8 +22,56 @@ public class ResidenceHook {
     }
 
     public boolean checkBuild(Player player, Location location) {
-        ClaimedResidence residence = ResidenceApi.getResidenceManager().getByLoc(location);
+        return checkBuild(player, getResidenceAt(location));
+    }
+
+    public ClaimedResidence getResidenceAt(Location location) {
+        return ResidenceApi.getResidenceManager().getByLoc(location);
+    }
+
+    /**
+     * Check if the player may break every block in the box, i.e. every residence and subzone touching it allows the player.
+     * Land without a residence is always allowed, so the box doesn't have to lie inside a single residence.
+     */
+    public boolean checkBuildArea(Player player, World world, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        CuboidArea area = new CuboidArea(new Location(world, minX, minY, minZ), new Location(world, maxX, maxY, maxZ));
+        ResidenceManager residenceManager = Residence.getInstance().getResidenceManager();
+        Set<ClaimedResidence> checked = new HashSet<>();
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                if (!world.isChunkLoaded(chunkX, chunkZ)) {
+                    return false; // Don't load chunks just to answer this, fall back to checking every block
+                }
+                List<ClaimedResidence> residences = residenceManager.getByChunk(world.getChunkAt(chunkX, chunkZ));
+                if (residences == null) {
+                    continue;
+                }
+                for (ClaimedResidence residence : residences) {
+                    if (!checkBuildArea(player, residence, area, checked)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean checkBuildArea(Player player, ClaimedResidence residence, CuboidArea area, Set<ClaimedResidence> checked) {
+        if (!checked.add(residence) || !residence.checkCollision(area)) {
+            return true;
+        }
+        if (!checkBuild(player, residence)) {
+            return false;
+        }
+        for (ClaimedResidence subzone : residence.getSubzones()) {
+            if (!checkBuildArea(player, subzone, area, checked)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
+    public boolean checkBuild(Player player, ClaimedResidence residence) {
         if (residence == null) {
             return true;
         }
@@ -0,0 +1,71 @@
+package org.atcplus.autotreechopplus.hooks;
+
+import com.bekvon.bukkit.residence.event.ResidenceAreaAddEvent;
+import com.bekvon.bukkit.residence.event.ResidenceAreaDeleteEvent;
+import com.bekvon.bukkit.residence.event.ResidenceCreationEvent;
+import com.bekvon.bukkit.residence.event.ResidenceDeleteEvent;
+import com.bekvon.bukkit.residence.event.ResidenceFlagChangeEvent;
+import com.bekvon.bukkit.residence.event.ResidenceOwnerChangeEvent;
+import com.bekvon.bukkit.residence.event.ResidenceRenameEvent;
+import com.bekvon.bukkit.residence.event.ResidenceSizeChangeEvent;
+import com.bekvon.bukkit.residence.event.ResidenceSubzoneCreationEvent;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+
+/**
+ * Drops cached protection decisions when a residence, its areas or its flags change.
+ * Only registered when Residence is hooked.
+ */
+public class ResidenceListener implements Listener {
+    private final ProtectionHooks protectionHooks;
+
+    public ResidenceListener(ProtectionHooks protectionHooks) {
+        this.protectionHooks = protectionHooks;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onResidenceCreation(ResidenceCreationEvent event) {
+        protectionHooks.invalidate();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onSubzoneCreation(ResidenceSubzoneCreationEvent event) {
+        protectionHooks.invalidate();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onResidenceDelete(ResidenceDeleteEvent event) {
+        protectionHooks.invalidate();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onAreaAdd(ResidenceAreaAddEvent event) {
+        protectionHooks.invalidate();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onAreaDelete(ResidenceAreaDeleteEvent event) {
+        protectionHooks.invalidate();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onSizeChange(ResidenceSizeChangeEvent event) {
+        protectionHooks.invalidate();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onFlagChange(ResidenceFlagChangeEvent event) {
+        protectionHooks.invalidate();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onOwnerChange(ResidenceOwnerChangeEvent event) {
+        protectionHooks.invalidate();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onRename(ResidenceRenameEvent event) {
+        protectionHooks.invalidate();
+    }
+}
@@ -1,15 +1,20 @@
 ﻿package org.atcplus.autotreechopplus.hooks;
 
 import com.sk89q.worldedit.bukkit.BukkitAdapter;
+import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldguard.LocalPlayer;
 import com.sk89q.worldguard.WorldGuard;
 import com.sk89q.worldguard.bukkit.WorldGuardPlugin;
 import com.sk89q.worldguard.protection.ApplicableRegionSet;
 import com.sk89q.worldguard.protection.flags.Flags;
 import com.sk89q.worldguard.protection.flags.StateFlag;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
 import com.sk89q.worldguard.protection.regions.RegionContainer;
 import com.sk89q.worldguard.protection.regions.RegionQuery;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 
 public class WorldGuardHook {
@@ -18,11 +23,50 @@ public class WorldGuardHook {
             return true;
         }
 
-        com.sk89q.worldedit.util.Location loc = BukkitAdapter.adapt(location);
+        return checkBuild(wrapPlayer(player), getApplicableRegions(createQuery(), location));
+    }
+
+    public RegionQuery createQuery() {
         RegionContainer container = WorldGuard.getInstance().getPlatform().getRegionContainer();
-        RegionQuery query = container.createQuery();
-        ApplicableRegionSet set = query.getApplicableRegions(loc);
-        LocalPlayer localPlayer = WorldGuardPlugin.inst().wrapPlayer(player);
+        return container.createQuery();
+    }
+
+    public LocalPlayer wrapPlayer(Player player) {
+        return WorldGuardPlugin.inst().wrapPlayer(player);
+    }
+
+    public ApplicableRegionSet getApplicableRegions(RegionQuery query, Location location) {
+        com.sk89q.worldedit.util.Location loc = BukkitAdapter.adapt(location);
+        return query.getApplicableRegions(loc);
+    }
+
+    /**
+     * Check if the player may break every block in the box, with a single region lookup.
+     * Only answers true when every block of the box is covered by the same regions,
+     * i.e. no region or only cuboid regions that contain the whole box.
+     */
+    public boolean checkBuildArea(LocalPlayer localPlayer, World world, int minX, int minY, int minZ,
+                                  int maxX, int maxY, int maxZ) {
+        RegionManager regionManager = WorldGuard.getInstance().getPlatform().getRegionContainer()
+                .get(BukkitAdapter.adapt(world));
+        if (regionManager == null) {
+            return true; // Region protection is disabled in this world
+        }
+
+        BlockVector3 min = BlockVector3.at(minX, minY, minZ);
+        BlockVector3 max = BlockVector3.at(maxX, maxY, maxZ);
+        ApplicableRegionSet set = regionManager.getApplicableRegions(new ProtectedCuboidRegion("__atc_tree__", true, min, max));
+        for (ProtectedRegion region : set) {
+            // A cuboid holding both corners holds the whole box, any other shape could cover it partly
+            if (!(region instanceof ProtectedCuboidRegion) || !region.contains(min) || !region.contains(max)) {
+                return false;
+            }
+        }
+        return checkBuild(localPlayer, set);
+    }
+
+    // Check the build flags of an already looked up region set, without the op bypass
+    public boolean checkBuild(LocalPlayer localPlayer, ApplicableRegionSet set) {
         return !(set.queryState(localPlayer, Flags.BUILD) == StateFlag.State.DENY) &&
                 !(set.queryState(localPlayer, Flags.BLOCK_BREAK) == StateFlag.State.DENY);
     }
@@ -0,0 +1,61 @@
+package org.atcplus.autotreechopplus.storage;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.atcplus.autotreechopplus.AutoTreeChopPlus;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resets the daily limits at midnight in the configured time zone.
+ * At the rollover the cached players are reset in memory and every stored row is reset with one update,
+ * so the limit checks only have to compare the player's day with {@link EpochDayClock#today()}.
+ */
+public class DailyResetService {
+
+    private final AutoTreeChopPlus plugin;
+    private final PlayerDataRepository repository;
+    private final PlayerConfigCache cache;
+    private final EpochDayClock clock;
+
+    private BukkitTask bukkitTask;
+    private ScheduledTask foliaTask;
+
+    public DailyResetService(AutoTreeChopPlus plugin, PlayerDataRepository repository, PlayerConfigCache cache) {
+        this.plugin = plugin;
+        this.repository = repository;
+        this.cache = cache;
+        this.clock = repository.getClock();
+    }
+
+    public void start() {
+        // Rows left over from days the server was offline
+        repository.resetDailyCounters(clock.today());
+        if (AutoTreeChopPlus.isFolia()) {
+            foliaTask = plugin.getServer().getAsyncScheduler().runAtFixedRate(plugin, (task) -> tick(), 1L, 1L, TimeUnit.SECONDS);
+        } else {
+            bukkitTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::tick, 20L, 20L);
+        }
+    }
+
+    public void stop() {
+        if (foliaTask != null) {
+            foliaTask.cancel();
+            foliaTask = null;
+        }
+        if (bukkitTask != null) {
+            bukkitTask.cancel();
+            bukkitTask = null;
+        }
+    }
+
+    private void tick() {
+        if (!clock.advance()) {
+            return;
+        }
+        int today = clock.today();
+        cache.forEach((playerConfig) -> playerConfig.resetDay(today));
+        repository.resetDailyCounters(today);
+    }
+}
@@ -0,0 +1,473 @@
+package org.atcplus.autotreechopplus.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the daily counter increments that are not in the database yet,
+ * so a crash doesn't hand out the uses since the last flush again.
+ * Increments only go into memory buffers, full buffers are handed to the writer thread, which writes and syncs them
+ * on a cadence. Every flush starts a new segment, the old segments are deleted once the flush that covers them succeeded.
+ * The next segment is opened ahead of time, so starting one is only a swap. Segments that are still there
+ * at startup are replayed into the database, except the ones a marker file lists as already written.
+ * The marker is written right after the database commit, so only a crash between the two replays increments twice.
+ */
+public class DeltaJournal {
+
+    // uuid high, uuid low, epoch day, uses, blocks broken, crc of the rest
+    private static final int RECORD_SIZE = 8 + 8 + 4 + 4 + 4 + 4;
+    private static final int BUFFER_RECORDS = 1024;
+    private static final String PREFIX = "deltas-";
+    private static final String SUFFIX = ".log";
+    // Sequences of the segments whose flush succeeded but that may not be deleted yet, one per line
+    private static final String FLUSHED_MARKER = "flushed";
+
+    private final File directory;
+    private final Logger logger;
+    private final CRC32 crc = new CRC32();
+
+    private final List<File> recovered = new ArrayList<>();
+    // Segments that were rotated out and wait for a successful flush
+    private final List<File> closed = new ArrayList<>();
+
+    // The buffer increments go into, and the full ones before it that the writer hasn't written yet
+    private ByteBuffer buffer = newBuffer();
+    private List<ByteBuffer> fullBuffers = new ArrayList<>();
+
+    private FileChannel channel;
+    private File file;
+    // Opened ahead of time by the writer, becomes the current segment on rotate
+    private FileChannel nextChannel;
+    private File nextFile;
+    // The segment of the last rotate and what still has to be written to it
+    private FileChannel rotatedChannel;
+    private File rotatedFile;
+    private List<ByteBuffer> rotatedBuffers = List.of();
+
+    private long nextSequence;
+    private boolean failed;
+
+    public DeltaJournal(File directory, Logger logger) {
+        this.directory = directory;
+        this.logger = logger;
+    }
+
+    /**
+     * Reads what an earlier run left behind and starts a new segment
+     *
+     * @param toggles Toggles for players that have no row yet
+     * @return the increments found in the old segments, oldest day first
+     */
+    public synchronized List<PlayerDelta> open(int toggles) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files == null) {
+            files = new File[0];
+        }
+        Arrays.sort(files, Comparator.comparingLong(DeltaJournal::sequenceOf));
+        Set<Long> flushed = readFlushedMarker();
+        for (long sequence : flushed) {
+            // A listed sequence may belong to a segment that is gone already, it must not be reused
+            nextSequence = Math.max(nextSequence, sequence + 1);
+        }
+
+        // Sum up per player and day
+        Map<UUID, Map<Integer, int[]>> sums = new HashMap<>();
+        boolean flushedDeleted = true;
+        for (File segment : files) {
+            long sequence = sequenceOf(segment);
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            if (flushed.contains(sequence)) {
+                // Its flush was committed, the crash only kept it from being deleted
+                flushedDeleted &= deleteSegment(segment);
+                continue;
+            }
+            read(segment, sums);
+            recovered.add(segment);
+        }
+        if (flushedDeleted) {
+            deleteFlushedMarker();
+        }
+
+        List<PlayerDelta> deltas = new ArrayList<>();
+        sums.forEach((playerUUID, days) -> days.forEach((day, counters) ->
+                deltas.add(new PlayerDelta(playerUUID, false, toggles, counters[0], counters[1], day))));
+        // A newer day starts the counters over, so it has to come last
+        deltas.sort(Comparator.comparingInt(PlayerDelta::lastUseDay));
+
+        file = segmentFile(nextSequence++);
+        channel = openChannel(file);
+        return deltas;
+    }
+
+    private void read(File segment, Map<UUID, Map<Integer, int[]>> sums) throws IOException {
+        try (FileChannel in = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer data = ByteBuffer.allocate((int) in.size());
+            while (data.hasRemaining()) {
+                if (in.read(data) < 0) {
+                    break;
+                }
+            }
+            data.flip();
+            while (data.remaining() >= RECORD_SIZE) {
+                int start = data.position();
+                crc.reset();
+                crc.update(data.array(), start, RECORD_SIZE - 4);
+                long uuidHigh = data.getLong();
+                long uuidLow = data.getLong();
+                int day = data.getInt();
+                int uses = data.getInt();
+                int blocksBroken = data.getInt();
+                if (data.getInt() != (int) crc.getValue()) {
+                    // Torn write at the end of a crashed segment, nothing after it is trustworthy
+                    logger.warning("Ignoring damaged end of " + segment.getName());
+                    break;
+                }
+                int[] counters = sums.computeIfAbsent(new UUID(uuidHigh, uuidLow), (uuid) -> new HashMap<>())
+                        .computeIfAbsent(day, (key) -> new int[2]);
+                counters[0] += uses;
+                counters[1] += blocksBroken;
+            }
+        }
+    }
+
+    /**
+     * Deletes the segments returned by {@link #open(int)}, once their increments are in the database
+     */
+    public void deleteRecovered() {
+        List<File> segments;
+        synchronized (this) {
+            segments = new ArrayList<>(recovered);
+            recovered.clear();
+        }
+        delete(segments);
+    }
+
+    /**
+     * Records an increment, only touches memory. A full buffer is left for the writer thread.
+     */
+    public synchronized void append(UUID playerUUID, int day, int uses, int blocksBroken) {
+        if (failed) {
+            return;
+        }
+        if (buffer.remaining() < RECORD_SIZE) {
+            fullBuffers.add(buffer);
+            buffer = newBuffer();
+        }
+        int start = buffer.position();
+        buffer.putLong(playerUUID.getMostSignificantBits());
+        buffer.putLong(playerUUID.getLeastSignificantBits());
+        buffer.putInt(day);
+        buffer.putInt(uses);
+        buffer.putInt(blocksBroken);
+        crc.reset();
+        crc.update(buffer.array(), start, RECORD_SIZE - 4);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Writes the buffered increments and syncs them to disk, called on the writer thread on the storage cadence
+     */
+    public void sync() {
+        FileChannel current;
+        List<ByteBuffer> buffers;
+        synchronized (this) {
+            current = channel;
+            buffers = takeBuffers();
+        }
+        // Only the writer thread writes and rotates, so the channel stays open without holding the lock
+        write(current, buffers);
+        force(current);
+    }
+
+    /**
+     * Opens the segment the next {@link #rotate()} switches to, call it on the writer thread before taking
+     * the lock the increments need
+     */
+    public void prepareRotation() {
+        File segment;
+        synchronized (this) {
+            if (failed || nextChannel != null) {
+                return;
+            }
+            segment = segmentFile(nextSequence++);
+        }
+        FileChannel opened = openChannel(segment);
+        synchronized (this) {
+            nextChannel = opened;
+            nextFile = segment;
+        }
+    }
+
+    /**
+     * Starts a new segment, everything appended before belongs to the flush that is about to start.
+     * Only swaps references if {@link #prepareRotation()} was called, call {@link #sealRotated()} afterwards,
+     * outside of any lock the increments need.
+     */
+    public synchronized void rotate() {
+        if (failed) {
+            return;
+        }
+        rotatedChannel = channel;
+        rotatedFile = file;
+        rotatedBuffers = takeBuffers();
+        if (nextChannel == null) {
+            // prepareRotation wasn't called or failed, open it here
+            nextFile = segmentFile(nextSequence++);
+            nextChannel = openChannel(nextFile);
+        }
+        channel = nextChannel;
+        file = nextFile;
+        nextChannel = null;
+        nextFile = null;
+    }
+
+    /**
+     * Writes, syncs and closes the segment of the last {@link #rotate()}
+     *
+     * @return every segment that waits for a successful flush
+     */
+    public List<File> sealRotated() {
+        FileChannel sealing;
+        File sealedFile;
+        List<ByteBuffer> buffers;
+        synchronized (this) {
+            sealing = rotatedChannel;
+            sealedFile = rotatedFile;
+            buffers = rotatedBuffers;
+            rotatedChannel = null;
+            rotatedFile = null;
+            rotatedBuffers = List.of();
+        }
+        if (sealing != null) {
+            write(sealing, buffers);
+            force(sealing);
+            closeQuietly(sealing);
+        }
+        synchronized (this) {
+            if (sealedFile != null) {
+                closed.add(sealedFile);
+            }
+            return new ArrayList<>(closed);
+        }
+    }
+
+    /**
+     * Deletes segments whose increments are in the database now, call it on the writer thread right after the commit.
+     * They are listed in the marker first, so a crash before they are gone doesn't replay them.
+     */
+    public void delete(List<File> segments) {
+        if (segments.isEmpty()) {
+            return;
+        }
+        boolean marked = writeFlushedMarker(segments);
+        boolean deleted = true;
+        for (File segment : segments) {
+            deleted &= deleteSegment(segment);
+        }
+        // A segment that is still there must stay listed, or the next start replays it
+        if (marked && deleted) {
+            deleteFlushedMarker();
+        }
+        synchronized (this) {
+            closed.removeAll(segments);
+        }
+    }
+
+    /**
+     * Syncs and closes the current segment, it is deleted if nothing was written to it
+     */
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        write(channel, takeBuffers());
+        force(channel);
+        closeSegment(channel, file);
+        channel = null;
+        if (nextChannel != null) {
+            closeSegment(nextChannel, nextFile);
+            nextChannel = null;
+        }
+    }
+
+    private void closeSegment(FileChannel target, File segment) {
+        try {
+            long size = target.size();
+            target.close();
+            if (size == 0 && !segment.delete()) {
+                logger.warning("Could not delete journal segment " + segment.getName());
+            }
+        } catch (IOException e) {
+            logger.warning("Error closing journal segment: " + e.getMessage());
+        }
+    }
+
+    private boolean deleteSegment(File segment) {
+        if (!segment.delete() && segment.exists()) {
+            logger.warning("Could not delete journal segment " + segment.getName());
+            return false;
+        }
+        return true;
+    }
+
+    private Set<Long> readFlushedMarker() throws IOException {
+        Set<Long> sequences = new HashSet<>();
+        File marker = new File(directory, FLUSHED_MARKER);
+        if (marker.isFile()) {
+            for (String line : Files.readAllLines(marker.toPath(), StandardCharsets.UTF_8)) {
+                try {
+                    sequences.add(Long.parseLong(line.trim()));
+                } catch (NumberFormatException ignored) {
+                    // Only a fully written marker is ever moved into place
+                }
+            }
+        }
+        return sequences;
+    }
+
+    // Written to a temporary file and moved into place, so the marker is either complete or missing.
+    // Keeps what an earlier flush listed, in case one of its segments couldn't be deleted.
+    private boolean writeFlushedMarker(List<File> segments) {
+        Set<Long> sequences;
+        try {
+            sequences = readFlushedMarker();
+        } catch (IOException e) {
+            sequences = new HashSet<>();
+        }
+        for (File segment : segments) {
+            sequences.add(sequenceOf(segment));
+        }
+        StringBuilder content = new StringBuilder();
+        for (long sequence : sequences) {
+            content.append(sequence).append('\n');
+        }
+        File temporary = new File(directory, FLUSHED_MARKER + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer data = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+            out.force(false);
+        } catch (IOException e) {
+            logger.warning("Error writing the journal flush marker: " + e.getMessage());
+            return false;
+        }
+        try {
+            Files.move(temporary.toPath(), new File(directory, FLUSHED_MARKER).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            logger.warning("Error writing the journal flush marker: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void deleteFlushedMarker() {
+        File marker = new File(directory, FLUSHED_MARKER);
+        if (!marker.delete() && marker.exists()) {
+            logger.warning("Could not delete the journal flush marker");
+        }
+    }
+
+    // Hands out everything appended so far, oldest first, must hold the lock
+    private List<ByteBuffer> takeBuffers() {
+        List<ByteBuffer> buffers = fullBuffers;
+        fullBuffers = new ArrayList<>();
+        if (buffer.position() > 0) {
+            buffers.add(buffer);
+            buffer = newBuffer();
+        }
+        return buffers;
+    }
+
+    private ByteBuffer newBuffer() {
+        return ByteBuffer.allocate(RECORD_SIZE * BUFFER_RECORDS);
+    }
+
+    private File segmentFile(long sequence) {
+        return new File(directory, PREFIX + sequence + SUFFIX);
+    }
+
+    private FileChannel openChannel(File segment) {
+        try {
+            return FileChannel.open(segment.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            fail(e);
+            return null;
+        }
+    }
+
+    private void write(FileChannel target, List<ByteBuffer> buffers) {
+        if (target == null || buffers.isEmpty()) {
+            return;
+        }
+        try {
+            for (ByteBuffer data : buffers) {
+                data.flip();
+                while (data.hasRemaining()) {
+                    target.write(data);
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void force(FileChannel target) {
+        if (target == null || !target.isOpen()) {
+            return;
+        }
+        try {
+            target.force(false);
+        } catch (IOException e) {
+            logger.warning("Error syncing the delta journal: " + e.getMessage());
+        }
+    }
+
+    // Stop journaling rather than failing every increment, the database writes go on as before
+    private void fail(IOException e) {
+        synchronized (this) {
+            failed = true;
+        }
+        logger.severe("Error writing the delta journal, daily counters are no longer crash safe: " + e.getMessage());
+    }
+
+    private void closeQuietly(FileChannel target) {
+        try {
+            target.close();
+        } catch (IOException e) {
+            logger.warning("Error closing journal segment: " + e.getMessage());
+        }
+    }
+
+    private static long sequenceOf(File segment) {
+        String name = segment.getName();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
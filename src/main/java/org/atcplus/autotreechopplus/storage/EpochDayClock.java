@@ -0,0 +1,48 @@
+package org.atcplus.autotreechopplus.storage;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+/**
+ * The current day in the reset time zone as an epoch day.
+ * Reading it is a field read, only {@link #advance()} looks at the calendar.
+ */
+public class EpochDayClock {
+
+    private final ZoneId zone;
+    private volatile int today;
+    private volatile long nextRolloverMillis;
+
+    public EpochDayClock(ZoneId zone) {
+        this.zone = zone;
+        update();
+    }
+
+    public int today() {
+        return today;
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * Moves the clock to the current day if midnight has passed
+     *
+     * @return true if the day changed
+     */
+    public boolean advance() {
+        if (System.currentTimeMillis() < nextRolloverMillis) {
+            return false;
+        }
+        int previous = today;
+        update();
+        return today != previous;
+    }
+
+    private void update() {
+        LocalDate date = LocalDate.now(zone);
+        nextRolloverMillis = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        today = (int) date.toEpochDay();
+    }
+}
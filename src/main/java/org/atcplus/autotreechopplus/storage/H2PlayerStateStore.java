@@ -0,0 +1,52 @@
+package org.atcplus.autotreechopplus.storage;
+
+import com.zaxxer.hikari.HikariConfig;
+
+import java.io.File;
+import java.util.logging.Logger;
+
+/**
+ * An embedded H2 database in the plugin folder, an alternative to SQLite.
+ * The driver is not in the plugin jar, the server downloads it through the libraries in plugin.yml.
+ */
+public class H2PlayerStateStore extends JdbcPlayerStateStore {
+
+    private static final String DRIVER_CLASS = "org.h2.Driver";
+
+    private final File file;
+
+    /**
+     * @param file the database file without the .mv.db extension
+     */
+    public H2PlayerStateStore(Logger logger, File file) {
+        super(logger, SqlDialect.H2);
+        this.file = file;
+    }
+
+    /**
+     * Whether the server's library loader provided the driver, it doesn't on servers without plugin.yml libraries
+     */
+    public static boolean isAvailable() {
+        try {
+            Class.forName(DRIVER_CLASS, false, H2PlayerStateStore.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "H2";
+    }
+
+    @Override
+    protected HikariConfig createPoolConfig() {
+        HikariConfig hikariConfig = new HikariConfig();
+        // Not every server loads the driver through DriverManager, so name the class
+        hikariConfig.setDriverClassName(DRIVER_CLASS);
+        hikariConfig.setJdbcUrl("jdbc:h2:" + file.getAbsolutePath());
+        hikariConfig.setMaximumPoolSize(4);
+        return hikariConfig;
+    }
+}
@@ -0,0 +1,200 @@
+package org.atcplus.autotreechopplus.storage;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * The SQL databases, they share the schema and differ in the connection pool settings and the {@link SqlDialect}.
+ */
+public abstract class JdbcPlayerStateStore implements PlayerStateStore {
+
+    protected final Logger logger;
+    private final SqlDialect dialect;
+    protected HikariDataSource dataSource;
+
+    protected JdbcPlayerStateStore(Logger logger, SqlDialect dialect) {
+        this.logger = logger;
+        this.dialect = dialect;
+    }
+
+    /**
+     * The pool settings of the database, the pool name is set afterwards
+     */
+    protected abstract HikariConfig createPoolConfig();
+
+    @Override
+    public void open() throws SQLException {
+        HikariConfig hikariConfig = createPoolConfig();
+        hikariConfig.setPoolName("AutoTreeChopPlus");
+        try {
+            dataSource = new HikariDataSource(hikariConfig);
+        } catch (RuntimeException e) {
+            throw new SQLException("Error establishing " + getName() + " connection: " + e.getMessage(), e);
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            SchemaMigrator.migrate(connection, dialect, logger);
+        } catch (SQLException e) {
+            // Writing into a half migrated schema could lose data
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (dataSource != null) {
+            dataSource.close();
+            dataSource = null;
+        }
+    }
+
+    @Override
+    public PlayerData load(UUID playerUUID) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SqlDialect.SELECT_PLAYER)) {
+            return load(statement, playerUUID);
+        }
+    }
+
+    @Override
+    public Map<UUID, PlayerData> loadAll(Collection<UUID> playerUUIDs) throws SQLException {
+        Map<UUID, PlayerData> players = new HashMap<>();
+        // One connection and statement for all of them
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SqlDialect.SELECT_PLAYER)) {
+            for (UUID playerUUID : playerUUIDs) {
+                PlayerData data = load(statement, playerUUID);
+                if (data != null) {
+                    players.put(playerUUID, data);
+                }
+            }
+        }
+        return players;
+    }
+
+    private static PlayerData load(PreparedStatement statement, UUID playerUUID) throws SQLException {
+        statement.setLong(1, playerUUID.getMostSignificantBits());
+        statement.setLong(2, playerUUID.getLeastSignificantBits());
+        try (ResultSet resultSet = statement.executeQuery()) {
+            if (!resultSet.next()) {
+                return null;
+            }
+            return new PlayerData(playerUUID,
+                    PlayerData.isSet(resultSet.getInt(1), PlayerData.TOGGLE_AUTO_TREE_CHOP),
+                    resultSet.getInt(2),
+                    resultSet.getInt(3),
+                    resultSet.getInt(4));
+        }
+    }
+
+    @Override
+    public void saveAll(Collection<PlayerData> players) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(dialect.getUpsertPlayer())) {
+                for (PlayerData data : players) {
+                    statement.setLong(1, data.playerUUID().getMostSignificantBits());
+                    statement.setLong(2, data.playerUUID().getLeastSignificantBits());
+                    statement.setInt(3, data.toggles());
+                    statement.setInt(4, data.dailyUses());
+                    statement.setInt(5, data.dailyBlocksBroken());
+                    statement.setInt(6, data.lastUseDay());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    @Override
+    public Map<UUID, PlayerData> applyDeltas(Collection<PlayerDelta> deltas) throws SQLException {
+        Map<UUID, PlayerData> players = new HashMap<>();
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement(dialect.getInsertPlayerIfAbsent());
+                 PreparedStatement updateToggles = connection.prepareStatement(SqlDialect.UPDATE_TOGGLES);
+                 PreparedStatement addCounters = connection.prepareStatement(SqlDialect.ADD_DAILY_COUNTERS);
+                 PreparedStatement select = connection.prepareStatement(SqlDialect.SELECT_PLAYER)) {
+                boolean togglesChanged = false;
+                for (PlayerDelta delta : deltas) {
+                    long uuidHigh = delta.playerUUID().getMostSignificantBits();
+                    long uuidLow = delta.playerUUID().getLeastSignificantBits();
+                    insert.setLong(1, uuidHigh);
+                    insert.setLong(2, uuidLow);
+                    insert.setInt(3, delta.toggles());
+                    insert.setInt(4, delta.lastUseDay());
+                    insert.addBatch();
+
+                    if (delta.togglesChanged()) {
+                        updateToggles.setInt(1, delta.toggles());
+                        updateToggles.setLong(2, uuidHigh);
+                        updateToggles.setLong(3, uuidLow);
+                        updateToggles.addBatch();
+                        togglesChanged = true;
+                    }
+
+                    int day = delta.lastUseDay();
+                    addCounters.setInt(1, day);
+                    addCounters.setInt(2, delta.dailyUses());
+                    addCounters.setInt(3, day);
+                    addCounters.setInt(4, delta.dailyUses());
+                    addCounters.setInt(5, day);
+                    addCounters.setInt(6, delta.dailyBlocksBroken());
+                    addCounters.setInt(7, day);
+                    addCounters.setInt(8, delta.dailyBlocksBroken());
+                    addCounters.setInt(9, day);
+                    addCounters.setInt(10, day);
+                    addCounters.setLong(11, uuidHigh);
+                    addCounters.setLong(12, uuidLow);
+                    addCounters.addBatch();
+                }
+                insert.executeBatch();
+                if (togglesChanged) {
+                    updateToggles.executeBatch();
+                }
+                addCounters.executeBatch();
+                // Read the totals inside the transaction, so they include our increments
+                for (PlayerDelta delta : deltas) {
+                    PlayerData data = load(select, delta.playerUUID());
+                    if (data != null) {
+                        players.put(delta.playerUUID(), data);
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+        return players;
+    }
+
+    @Override
+    public int resetDailyCounters(int today) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SqlDialect.RESET_DAILY_COUNTERS)) {
+            statement.setInt(1, today);
+            return statement.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.atcplus.autotreechopplus.storage;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps player data in memory only, everything is gone after a restart.
+ * Meant for tests and for servers that don't want to store anything.
+ */
+public class MemoryPlayerStateStore implements PlayerStateStore {
+
+    private final Map<UUID, PlayerData> players = new ConcurrentHashMap<>();
+
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String getName() {
+        return "Memory";
+    }
+
+    @Override
+    public PlayerData load(UUID playerUUID) {
+        return players.get(playerUUID);
+    }
+
+    @Override
+    public Map<UUID, PlayerData> loadAll(Collection<UUID> playerUUIDs) {
+        Map<UUID, PlayerData> result = new HashMap<>();
+        for (UUID playerUUID : playerUUIDs) {
+            PlayerData data = players.get(playerUUID);
+            if (data != null) {
+                result.put(playerUUID, data);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void saveAll(Collection<PlayerData> players) {
+        for (PlayerData data : players) {
+            this.players.put(data.playerUUID(), data);
+        }
+    }
+
+    @Override
+    public Map<UUID, PlayerData> applyDeltas(Collection<PlayerDelta> deltas) {
+        Map<UUID, PlayerData> result = new HashMap<>();
+        for (PlayerDelta delta : deltas) {
+            PlayerData data = players.compute(delta.playerUUID(), (uuid, stored) -> {
+                if (stored == null) {
+                    stored = new PlayerData(uuid, PlayerData.isSet(delta.toggles(), PlayerData.TOGGLE_AUTO_TREE_CHOP),
+                            0, 0, delta.lastUseDay());
+                }
+                boolean enabled = delta.togglesChanged()
+                        ? PlayerData.isSet(delta.toggles(), PlayerData.TOGGLE_AUTO_TREE_CHOP)
+                        : stored.autoTreeChopPlusEnabled();
+                if (stored.lastUseDay() == delta.lastUseDay()) {
+                    return new PlayerData(uuid, enabled, stored.dailyUses() + delta.dailyUses(),
+                            stored.dailyBlocksBroken() + delta.dailyBlocksBroken(), stored.lastUseDay());
+                }
+                if (stored.lastUseDay() < delta.lastUseDay()) {
+                    return new PlayerData(uuid, enabled, delta.dailyUses(), delta.dailyBlocksBroken(), delta.lastUseDay());
+                }
+                return new PlayerData(uuid, enabled, stored.dailyUses(), stored.dailyBlocksBroken(), stored.lastUseDay());
+            });
+            result.put(delta.playerUUID(), data);
+        }
+        return result;
+    }
+
+    @Override
+    public int resetDailyCounters(int today) {
+        int reset = 0;
+        for (PlayerData data : players.values()) {
+            if (data.lastUseDay() < today && (data.dailyUses() != 0 || data.dailyBlocksBroken() != 0)) {
+                players.put(data.playerUUID(), new PlayerData(data.playerUUID(), data.autoTreeChopPlusEnabled(),
+                        0, 0, data.lastUseDay()));
+                reset++;
+            }
+        }
+        return reset;
+    }
+}
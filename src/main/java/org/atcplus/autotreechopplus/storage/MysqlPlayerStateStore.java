@@ -0,0 +1,47 @@
+package org.atcplus.autotreechopplus.storage;
+
+import com.zaxxer.hikari.HikariConfig;
+
+import java.util.logging.Logger;
+
+/**
+ * MySQL or MariaDB, for networks that share player data between servers.
+ */
+public class MysqlPlayerStateStore extends JdbcPlayerStateStore {
+
+    private final String hostname;
+    private final int port;
+    private final String database;
+    private final String username;
+    private final String password;
+
+    public MysqlPlayerStateStore(Logger logger, String hostname, int port, String database, String username, String password) {
+        super(logger, SqlDialect.MYSQL);
+        this.hostname = hostname;
+        this.port = port;
+        this.database = database;
+        this.username = username;
+        this.password = password;
+    }
+
+    @Override
+    public String getName() {
+        return "MySQL";
+    }
+
+    @Override
+    protected HikariConfig createPoolConfig() {
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setJdbcUrl("jdbc:mysql://" + hostname + ":" + port + "/" + database);
+        hikariConfig.setUsername(username);
+        hikariConfig.setPassword(password);
+        hikariConfig.setMaximumPoolSize(10);
+        // Let the driver cache prepared statements per connection and batch our upserts into one round trip
+        hikariConfig.addDataSourceProperty("cachePrepStmts", "true");
+        hikariConfig.addDataSourceProperty("prepStmtCacheSize", "250");
+        hikariConfig.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        hikariConfig.addDataSourceProperty("useServerPrepStmts", "true");
+        hikariConfig.addDataSourceProperty("rewriteBatchedStatements", "true");
+        return hikariConfig;
+    }
+}
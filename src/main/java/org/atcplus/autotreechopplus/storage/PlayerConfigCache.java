@@ -0,0 +1,176 @@
+package org.atcplus.autotreechopplus.storage;
+
+import org.atcplus.autotreechopplus.Config;
+import org.atcplus.autotreechopplus.PlayerConfig;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the PlayerConfig of every online player in memory, plus a bounded number of offline players
+ * for commands and placeholders. Online players are loaded before they join, so looking them up never
+ * touches the database on the server thread.
+ */
+public class PlayerConfigCache {
+
+    private final PlayerDataRepository repository;
+    private final Config config;
+    private final Map<UUID, PlayerConfig> onlinePlayers = new ConcurrentHashMap<>();
+    // Least recently used offline players, also holds players that are loaded but not joined yet
+    private final Map<UUID, PlayerConfig> offlinePlayers;
+    // Online players whose data is still being read, see join
+    private final Set<UUID> loadingPlayers = ConcurrentHashMap.newKeySet();
+
+    public PlayerConfigCache(PlayerDataRepository repository, Config config) {
+        this.repository = repository;
+        this.config = config;
+        int maxOfflinePlayers = config.getOfflinePlayerCacheSize();
+        this.offlinePlayers = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, PlayerConfig> eldest) {
+                // Players with unwritten changes stay, a rejoin would load the old row next to them otherwise
+                Iterator<PlayerConfig> iterator = values().iterator();
+                while (size() > maxOfflinePlayers && iterator.hasNext()) {
+                    if (!repository.hasPendingWrites(iterator.next())) {
+                        iterator.remove();
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Loads the player's data ahead of the join, blocks so only call it off the server thread
+     */
+    public void preload(UUID playerUUID) {
+        if (onlinePlayers.containsKey(playerUUID)) {
+            return; // Rejoined within the grace period
+        }
+        synchronized (offlinePlayers) {
+            if (offlinePlayers.containsKey(playerUUID)) {
+                return;
+            }
+        }
+        PlayerConfig playerConfig = repository.load(playerUUID, config.getDefaultTreeChop());
+        synchronized (offlinePlayers) {
+            offlinePlayers.putIfAbsent(playerUUID, playerConfig);
+        }
+    }
+
+    /**
+     * Moves the preloaded data into the online players.
+     * If the preload missed, the data is read in the background and the player is loading until then.
+     */
+    public void join(UUID playerUUID) {
+        onlinePlayers.computeIfAbsent(playerUUID, (uuid) -> {
+            PlayerConfig playerConfig = takeOffline(uuid);
+            if (playerConfig != null) {
+                return playerConfig;
+            }
+            loadingPlayers.add(uuid);
+            return repository.loadAsync(uuid, config.getDefaultTreeChop(), () -> loadingPlayers.remove(uuid));
+        });
+    }
+
+    /**
+     * Whether the player's data is still being read, their counters and toggles are the defaults until then
+     */
+    public boolean isLoading(UUID playerUUID) {
+        return loadingPlayers.contains(playerUUID);
+    }
+
+    /**
+     * Joins many players with one load, e.g. everyone online after a reload
+     */
+    public void joinAll(Collection<UUID> playerUUIDs) {
+        List<UUID> missing = new ArrayList<>();
+        for (UUID playerUUID : playerUUIDs) {
+            if (!onlinePlayers.containsKey(playerUUID)) {
+                PlayerConfig playerConfig = takeOffline(playerUUID);
+                if (playerConfig != null) {
+                    onlinePlayers.put(playerUUID, playerConfig);
+                } else {
+                    missing.add(playerUUID);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            repository.loadAll(missing, config.getDefaultTreeChop()).forEach(onlinePlayers::putIfAbsent);
+        }
+    }
+
+    /**
+     * Writes the player's pending changes, the data stays online until {@link #evict(UUID)}
+     */
+    public void quit(UUID playerUUID) {
+        PlayerConfig playerConfig = onlinePlayers.get(playerUUID);
+        if (playerConfig != null) {
+            repository.flushAsync(playerConfig);
+        }
+    }
+
+    /**
+     * Moves a player that left into the bounded offline cache
+     */
+    public void evict(UUID playerUUID) {
+        PlayerConfig playerConfig = onlinePlayers.remove(playerUUID);
+        if (playerConfig != null) {
+            synchronized (offlinePlayers) {
+                offlinePlayers.put(playerUUID, playerConfig);
+            }
+        }
+    }
+
+    /**
+     * Returns the player's data, loading it if it isn't cached
+     *
+     * @param online Whether the player is online right now, decides where a freshly loaded player is kept
+     */
+    public PlayerConfig get(UUID playerUUID, boolean online) {
+        PlayerConfig playerConfig = onlinePlayers.get(playerUUID);
+        if (playerConfig != null) {
+            return playerConfig;
+        }
+        if (online) {
+            join(playerUUID);
+            return onlinePlayers.get(playerUUID);
+        }
+
+        synchronized (offlinePlayers) {
+            playerConfig = offlinePlayers.get(playerUUID);
+        }
+        if (playerConfig != null) {
+            return playerConfig;
+        }
+        playerConfig = repository.load(playerUUID, config.getDefaultTreeChop());
+        synchronized (offlinePlayers) {
+            PlayerConfig existing = offlinePlayers.putIfAbsent(playerUUID, playerConfig);
+            return existing != null ? existing : playerConfig;
+        }
+    }
+
+    /**
+     * Calls the action for every cached player, online or not
+     */
+    public void forEach(Consumer<PlayerConfig> action) {
+        onlinePlayers.values().forEach(action);
+        synchronized (offlinePlayers) {
+            offlinePlayers.values().forEach(action);
+        }
+    }
+
+    private PlayerConfig takeOffline(UUID playerUUID) {
+        synchronized (offlinePlayers) {
+            return offlinePlayers.remove(playerUUID);
+        }
+    }
+}
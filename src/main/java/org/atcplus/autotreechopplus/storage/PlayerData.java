@@ -0,0 +1,25 @@
+package org.atcplus.autotreechopplus.storage;
+
+import java.util.UUID;
+
+/**
+ * A copy of one player's stored state, taken so it can be written on another thread.
+ */
+public record PlayerData(UUID playerUUID, boolean autoTreeChopPlusEnabled, int dailyUses, int dailyBlocksBroken,
+                         int lastUseDay) {
+
+    // Bits of the toggles column, one per feature a player can switch on or off
+    public static final int TOGGLE_AUTO_TREE_CHOP = 1;
+
+    public int toggles() {
+        return toToggles(autoTreeChopPlusEnabled);
+    }
+
+    public static int toToggles(boolean autoTreeChopPlusEnabled) {
+        return autoTreeChopPlusEnabled ? TOGGLE_AUTO_TREE_CHOP : 0;
+    }
+
+    public static boolean isSet(int toggles, int toggle) {
+        return (toggles & toggle) != 0;
+    }
+}
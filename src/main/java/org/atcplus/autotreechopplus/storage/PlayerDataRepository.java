@@ -0,0 +1,435 @@
+package org.atcplus.autotreechopplus.storage;
+
+import org.atcplus.autotreechopplus.Config;
+import org.atcplus.autotreechopplus.PlayerConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * All player data goes through here. Owns the {@link PlayerStateStore} of the plugin,
+ * which is opened in onEnable and closed in onDisable.
+ * Changes are not written right away: changed players are remembered and written in batches
+ * on a background thread, so the server thread never waits for the database.
+ */
+public class PlayerDataRepository {
+
+    private final Logger logger;
+    private final EpochDayClock clock;
+    private final Set<PlayerConfig> dirtyPlayers = ConcurrentHashMap.newKeySet();
+    // Players taken out of dirtyPlayers by the flush that is writing them right now
+    private final Set<PlayerConfig> writingPlayers = ConcurrentHashMap.newKeySet();
+    // Whether a flush is already waiting on the writer thread
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    // Held while counters are incremented and while a flush rotates the journal and takes the changes
+    private final Object incrementLock = new Object();
+    private PlayerStateStore store;
+    private boolean deltaCounters;
+    private DeltaJournal journal;
+    private ScheduledExecutorService writer;
+
+    public PlayerDataRepository(Logger logger, EpochDayClock clock) {
+        this.logger = logger;
+        this.clock = clock;
+    }
+
+    /**
+     * Opens the store picked by storage-type and migrates it to the latest schema.
+     * If the database can't be reached, players still get working defaults that are not saved.
+     */
+    public void open(Config config, File dataFolder) {
+        open(createStore(config, dataFolder), config, dataFolder);
+    }
+
+    /**
+     * Opens the given store with the storage settings of the config, for callers that pick the store themselves
+     */
+    public void open(PlayerStateStore store, Config config, File dataFolder) {
+        try {
+            store.open();
+        } catch (SQLException e) {
+            logger.severe("Error opening " + store.getName() + " storage, player data will not be saved: " + e.getMessage());
+            return;
+        }
+        this.store = store;
+        // Add counter increments to the stored totals instead of overwriting them, for databases shared by several servers
+        this.deltaCounters = config.isStorageDeltaCounters();
+        if (config.isStorageJournal()) {
+            openJournal(new File(dataFolder, "journal"), PlayerData.toToggles(config.getDefaultTreeChop()));
+        }
+
+        writer = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "AutoTreeChopPlus-Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = config.getStorageFlushIntervalMillis();
+        writer.scheduleWithFixedDelay(this::flushDirty, interval, interval, TimeUnit.MILLISECONDS);
+        if (journal != null) {
+            long syncInterval = config.getStorageJournalSyncMillis();
+            writer.scheduleWithFixedDelay(journal::sync, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Replays what the last run didn't get to write, before anyone is loaded
+    private void openJournal(File directory, int defaultToggles) {
+        DeltaJournal deltaJournal = new DeltaJournal(directory, logger);
+        List<PlayerDelta> deltas;
+        try {
+            deltas = deltaJournal.open(defaultToggles);
+        } catch (IOException e) {
+            logger.severe("Error opening the delta journal, daily counters are not crash safe: " + e.getMessage());
+            return;
+        }
+        journal = deltaJournal;
+        if (deltas.isEmpty()) {
+            deltaJournal.deleteRecovered();
+            return;
+        }
+        try {
+            store.applyDeltas(deltas);
+            deltaJournal.deleteRecovered();
+            logger.info("Replayed " + deltas.size() + " unsaved daily counter changes from the journal");
+        } catch (SQLException e) {
+            // The segments stay on disk and are replayed on the next start
+            logger.warning("Error replaying the delta journal: " + e.getMessage());
+        }
+    }
+
+    private PlayerStateStore createStore(Config config, File dataFolder) {
+        String type = config.getStorageType().toLowerCase(Locale.ROOT);
+        switch (type) {
+            case "mysql":
+            case "mariadb":
+                return new MysqlPlayerStateStore(logger, config.getHostname(), config.getPort(), config.getDatabase(),
+                        config.getUsername(), config.getPassword());
+            case "h2":
+                if (H2PlayerStateStore.isAvailable()) {
+                    return new H2PlayerStateStore(logger, new File(dataFolder, "player_data"));
+                }
+                logger.warning("The H2 driver was not loaded by the server, this needs plugin.yml libraries support. Using SQLite");
+                break;
+            case "memory":
+                return new MemoryPlayerStateStore();
+            case "sqlite":
+                break;
+            default:
+                logger.warning("Unknown storage-type in config.yml: " + type + ". Using SQLite");
+        }
+        return new SqlitePlayerStateStore(logger, new File(dataFolder, "player_data.db"));
+    }
+
+    /**
+     * Stops the writer, writes everything that is still pending and closes the store
+     */
+    public void close() {
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                    logger.warning("Timed out waiting for pending player data writes");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writer = null;
+        }
+        flushDirty();
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        if (store != null) {
+            store.close();
+            store = null;
+        }
+    }
+
+    public boolean isOpen() {
+        return store != null;
+    }
+
+    public EpochDayClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Lock to hold while changing the daily counters, see {@link #journalIncrement(UUID, int, int, int)}
+     */
+    public Object getIncrementLock() {
+        return incrementLock;
+    }
+
+    /**
+     * Records a counter increment in the journal, must be called while holding {@link #getIncrementLock()}
+     * together with the change itself, so a flush either contains both or neither
+     */
+    public void journalIncrement(UUID playerUUID, int day, int uses, int blocksBroken) {
+        DeltaJournal currentJournal = journal;
+        if (currentJournal != null) {
+            currentJournal.append(playerUUID, day, uses, blocksBroken);
+        }
+    }
+
+    /**
+     * Loads the player's data with a single query. New players get the defaults,
+     * their row is created by the next flush.
+     */
+    public PlayerConfig load(UUID playerUUID, boolean defaultTreeChop) {
+        PlayerStateStore currentStore = store;
+        if (currentStore != null) {
+            try {
+                PlayerData data = currentStore.load(playerUUID);
+                if (data != null) {
+                    return toPlayerConfig(data);
+                }
+            } catch (SQLException e) {
+                logger.warning("Error loading player data from database: " + e.getMessage());
+                return createUnsynced(playerUUID, defaultTreeChop);
+            }
+        }
+        return createDefault(playerUUID, defaultTreeChop);
+    }
+
+    /**
+     * Like {@link #load(UUID, boolean)}, but the row is read on the writer thread.
+     * The returned stand-in has the defaults until then and is only written as a delta, so it can be used right away.
+     *
+     * @param onLoaded Called on the writer thread once the row was read, or failed to
+     */
+    public PlayerConfig loadAsync(UUID playerUUID, boolean defaultTreeChop, Runnable onLoaded) {
+        ScheduledExecutorService currentWriter = writer;
+        if (currentWriter == null) {
+            // Nothing to read from, the defaults are not saved
+            PlayerConfig playerConfig = load(playerUUID, defaultTreeChop);
+            onLoaded.run();
+            return playerConfig;
+        }
+        PlayerConfig playerConfig = createUnsynced(playerUUID, defaultTreeChop);
+        try {
+            currentWriter.execute(() -> {
+                try {
+                    PlayerData data = store.load(playerUUID);
+                    playerConfig.applyLoaded(data);
+                    if (data == null) {
+                        // A new player, store the defaults like createDefault
+                        markDirty(playerConfig);
+                    }
+                } catch (SQLException e) {
+                    logger.warning("Error loading player data from database: " + e.getMessage());
+                } finally {
+                    onLoaded.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            onLoaded.run(); // Shutting down, the stand-in is only written as a delta
+        }
+        return playerConfig;
+    }
+
+    /**
+     * Like {@link #load(UUID, boolean)} for many players, with one connection for all of them
+     */
+    public Map<UUID, PlayerConfig> loadAll(Collection<UUID> playerUUIDs, boolean defaultTreeChop) {
+        Map<UUID, PlayerConfig> players = new HashMap<>();
+        PlayerStateStore currentStore = store;
+        if (currentStore != null) {
+            try {
+                for (PlayerData data : currentStore.loadAll(playerUUIDs).values()) {
+                    players.put(data.playerUUID(), toPlayerConfig(data));
+                }
+            } catch (SQLException e) {
+                logger.warning("Error loading player data from database: " + e.getMessage());
+                for (UUID playerUUID : playerUUIDs) {
+                    players.put(playerUUID, createUnsynced(playerUUID, defaultTreeChop));
+                }
+                return players;
+            }
+        }
+        for (UUID playerUUID : playerUUIDs) {
+            if (!players.containsKey(playerUUID)) {
+                players.put(playerUUID, createDefault(playerUUID, defaultTreeChop));
+            }
+        }
+        return players;
+    }
+
+    private PlayerConfig toPlayerConfig(PlayerData data) {
+        return new PlayerConfig(this, data.playerUUID(), data.autoTreeChopPlusEnabled(),
+                data.dailyUses(), data.dailyBlocksBroken(), data.lastUseDay());
+    }
+
+    private PlayerConfig createDefault(UUID playerUUID, boolean defaultTreeChop) {
+        PlayerConfig playerConfig = new PlayerConfig(this, playerUUID, defaultTreeChop, 0, 0, clock.today());
+        // Store the default right away, so a later change of defaultTreeChop doesn't affect this player
+        markDirty(playerConfig);
+        return playerConfig;
+    }
+
+    // Don't overwrite a row we didn't read, its changes are only added to it, see flushDirty
+    private PlayerConfig createUnsynced(UUID playerUUID, boolean defaultTreeChop) {
+        PlayerConfig playerConfig = new PlayerConfig(this, playerUUID, defaultTreeChop, 0, 0, clock.today());
+        playerConfig.markUnsynced();
+        return playerConfig;
+    }
+
+    /**
+     * Remembers that the player changed, it will be written with the next flush
+     */
+    public void markDirty(PlayerConfig playerConfig) {
+        dirtyPlayers.add(playerConfig);
+    }
+
+    /**
+     * Whether the player has changes that are not written yet, or are being written right now
+     */
+    public boolean hasPendingWrites(PlayerConfig playerConfig) {
+        return dirtyPlayers.contains(playerConfig) || writingPlayers.contains(playerConfig);
+    }
+
+    /**
+     * Writes the player's pending changes on the writer thread now, e.g. when the player quits.
+     * Everyone else who is pending goes into the same transaction, so many quits at once are one write.
+     */
+    public void flushAsync(PlayerConfig playerConfig) {
+        ScheduledExecutorService currentWriter = writer;
+        if (currentWriter == null || !dirtyPlayers.contains(playerConfig) || !flushQueued.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            currentWriter.execute(this::flushDirty);
+        } catch (RejectedExecutionException e) {
+            flushQueued.set(false); // Shutting down, close() writes it
+        }
+    }
+
+    /**
+     * Clears the daily counters of every stored player that last used it before today, on the writer thread
+     */
+    public void resetDailyCounters(int today) {
+        ScheduledExecutorService currentWriter = writer;
+        if (currentWriter == null) {
+            return;
+        }
+        try {
+            currentWriter.execute(() -> {
+                try {
+                    int players = store.resetDailyCounters(today);
+                    if (players > 0) {
+                        logger.info("Reset the daily limits of " + players + " players");
+                    }
+                } catch (SQLException e) {
+                    logger.warning("Error resetting daily limits in database: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+            // Shutting down, the next start resets them
+        }
+    }
+
+    // Writes every changed player in one batch
+    private void flushDirty() {
+        flushQueued.set(false);
+        if (store == null || dirtyPlayers.isEmpty()) {
+            return;
+        }
+
+        List<PlayerConfig> players;
+        List<PlayerConfig> snapshotPlayers = new ArrayList<>();
+        List<PlayerData> snapshots = new ArrayList<>();
+        List<PlayerConfig> deltaPlayers = new ArrayList<>();
+        List<PlayerDelta> deltas = new ArrayList<>();
+        if (journal != null) {
+            // Opens the next segment now, so only references are swapped while the increments wait
+            journal.prepareRotation();
+        }
+        // Every increment is either in the segment rotated out here and in this flush, or in the new segment
+        synchronized (incrementLock) {
+            if (journal != null) {
+                journal.rotate();
+            }
+            players = new ArrayList<>(dirtyPlayers);
+            writingPlayers.addAll(players);
+            // Remove before taking the snapshots, so a change made meanwhile marks the player dirty again
+            dirtyPlayers.removeAll(players);
+            for (PlayerConfig playerConfig : players) {
+                // A player whose row couldn't be read only adds to it, its zeroed counters must not replace it
+                if (deltaCounters || playerConfig.isUnsynced()) {
+                    deltaPlayers.add(playerConfig);
+                    deltas.add(playerConfig.takeDelta());
+                } else {
+                    snapshotPlayers.add(playerConfig);
+                    snapshots.add(playerConfig.snapshot());
+                }
+            }
+        }
+        List<File> segments = journal != null ? journal.sealRotated() : List.of();
+
+        boolean saved;
+        try {
+            saved = save(snapshotPlayers, snapshots) & saveDeltas(deltaPlayers, deltas);
+        } finally {
+            // Failed players are dirty again by now
+            writingPlayers.removeAll(players);
+        }
+        if (saved && journal != null) {
+            journal.delete(segments);
+        }
+    }
+
+    private boolean save(List<PlayerConfig> players, List<PlayerData> snapshots) {
+        if (snapshots.isEmpty()) {
+            return true;
+        }
+        try {
+            store.saveAll(snapshots);
+            return true;
+        } catch (SQLException e) {
+            logger.warning("Error updating player data in database: " + e.getMessage());
+            // Try again with the next flush
+            dirtyPlayers.addAll(players);
+            return false;
+        }
+    }
+
+    private boolean saveDeltas(List<PlayerConfig> players, List<PlayerDelta> deltas) {
+        if (deltas.isEmpty()) {
+            return true;
+        }
+        Map<UUID, PlayerData> stored;
+        try {
+            stored = store.applyDeltas(deltas);
+        } catch (SQLException e) {
+            logger.warning("Error updating player data in database: " + e.getMessage());
+            for (int i = 0; i < players.size(); i++) {
+                players.get(i).restoreDelta(deltas.get(i));
+            }
+            // Try again with the next flush
+            dirtyPlayers.addAll(players);
+            return false;
+        }
+        for (PlayerConfig playerConfig : players) {
+            PlayerData data = stored.get(playerConfig.getPlayerUUID());
+            if (data != null) {
+                playerConfig.applyStored(data);
+            }
+        }
+        return true;
+    }
+}
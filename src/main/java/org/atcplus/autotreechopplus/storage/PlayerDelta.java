@@ -0,0 +1,11 @@
+package org.atcplus.autotreechopplus.storage;
+
+import java.util.UUID;
+
+/**
+ * What changed for one player since the last flush, for databases shared by several servers.
+ * The counters are increments that get added to the stored totals, the toggles are only written if they changed.
+ */
+public record PlayerDelta(UUID playerUUID, boolean togglesChanged, int toggles, int dailyUses, int dailyBlocksBroken,
+                          int lastUseDay) {
+}
@@ -0,0 +1,55 @@
+package org.atcplus.autotreechopplus.storage;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Where player data is stored. {@link PlayerDataRepository} does the caching and write-behind,
+ * implementations only read and write rows. Calls block, so they are made off the server thread.
+ */
+public interface PlayerStateStore {
+
+    /**
+     * Connects and brings the schema up to date
+     */
+    void open() throws SQLException;
+
+    void close();
+
+    /**
+     * Name for log messages, e.g. "SQLite"
+     */
+    String getName();
+
+    /**
+     * @return the stored data, or null if the player has none yet
+     */
+    PlayerData load(UUID playerUUID) throws SQLException;
+
+    /**
+     * Loads many players at once, players without data are left out of the result
+     */
+    Map<UUID, PlayerData> loadAll(Collection<UUID> playerUUIDs) throws SQLException;
+
+    /**
+     * Inserts or overwrites the players, all or none of them
+     */
+    void saveAll(Collection<PlayerData> players) throws SQLException;
+
+    /**
+     * Adds the counter increments to the stored totals and writes changed toggles, all or none of them.
+     * Players without data are created first.
+     *
+     * @return the stored data of the players after the increments were added
+     */
+    Map<UUID, PlayerData> applyDeltas(Collection<PlayerDelta> deltas) throws SQLException;
+
+    /**
+     * Clears the daily counters of everyone whose last use was before the given epoch day
+     *
+     * @return how many players were reset
+     */
+    int resetDailyCounters(int today) throws SQLException;
+}
@@ -0,0 +1,238 @@
+package org.atcplus.autotreechopplus.storage;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Brings the database schema up to date. Every change to the tables is a numbered migration,
+ * the number of the last applied one is kept in atc_schema_version.
+ * Migrations only ever get added to the end of the list, never changed once released.
+ * MySQL commits table changes right away, so every migration has to be safe to run again after it failed halfway.
+ */
+public class SchemaMigrator {
+
+    private interface Migration {
+        void apply(Connection connection, SqlDialect dialect, Logger logger) throws SQLException;
+    }
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            SchemaMigrator::createLegacyTable,
+            SchemaMigrator::createCompactTable
+    );
+
+    public static final int LATEST_VERSION = MIGRATIONS.size();
+
+    // Servers sharing a MySQL database wait for each other's migration instead of running it twice
+    private static final String LOCK_NAME = "atc_schema_migration";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+
+    private SchemaMigrator() {
+    }
+
+    /**
+     * Applies every migration the database hasn't seen yet, each one in its own transaction.
+     * MySQL commits table changes right away, so there a failed migration may be left half done
+     * and is run again on the next start.
+     *
+     * @throws SQLException if a migration failed, the database should not be used then
+     */
+    public static void migrate(Connection connection, SqlDialect dialect, Logger logger) throws SQLException {
+        if (dialect == SqlDialect.MYSQL) {
+            lock(connection);
+        }
+        try {
+            migrateLocked(connection, dialect, logger);
+        } finally {
+            if (dialect == SqlDialect.MYSQL) {
+                unlock(connection);
+            }
+        }
+    }
+
+    private static void migrateLocked(Connection connection, SqlDialect dialect, Logger logger) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS atc_schema_version (version INT NOT NULL)");
+        }
+
+        // Read under the lock, another server may have migrated while we waited
+        int version = getVersion(connection);
+        if (version > LATEST_VERSION) {
+            throw new SQLException("Database schema version " + version + " is newer than this plugin supports (" + LATEST_VERSION + ")");
+        }
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            while (version < LATEST_VERSION) {
+                version++;
+                try {
+                    MIGRATIONS.get(version - 1).apply(connection, dialect, logger);
+                    setVersion(connection, version);
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw new SQLException("Error applying database migration " + version + ": " + e.getMessage(), e);
+                }
+                logger.info("Applied database migration " + version);
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static void lock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            statement.setString(1, LOCK_NAME);
+            statement.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next() || resultSet.getInt(1) != 1) {
+                    throw new SQLException("Timed out waiting for another server to finish migrating the database");
+                }
+            }
+        }
+    }
+
+    private static void unlock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            statement.setString(1, LOCK_NAME);
+            statement.executeQuery().close();
+        }
+    }
+
+    private static boolean tableExists(Connection connection, String table) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        // H2 keeps unquoted names in upper case
+        for (String name : new String[]{table, table.toUpperCase(Locale.ROOT)}) {
+            try (ResultSet resultSet = metaData.getTables(connection.getCatalog(), null, name, new String[]{"TABLE"})) {
+                if (resultSet.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean indexExists(Connection connection, String table, String index) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        for (String name : new String[]{table, table.toUpperCase(Locale.ROOT)}) {
+            try (ResultSet resultSet = metaData.getIndexInfo(connection.getCatalog(), null, name, false, false)) {
+                while (resultSet.next()) {
+                    if (index.equalsIgnoreCase(resultSet.getString("INDEX_NAME"))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // MySQL has no CREATE INDEX IF NOT EXISTS
+    private static void createIndex(Connection connection, String index, String table, String column) throws SQLException {
+        if (indexExists(connection, table, index)) {
+            return;
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE INDEX " + index + " ON " + table + " (" + column + ")");
+        }
+    }
+
+    private static int getVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT MAX(version) FROM atc_schema_version")) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    private static void setVersion(Connection connection, int version) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM atc_schema_version");
+        }
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO atc_schema_version (version) VALUES (?)")) {
+            statement.setInt(1, version);
+            statement.executeUpdate();
+        }
+    }
+
+    // 1: The table as older versions created it, so the next step has something to copy from
+    private static void createLegacyTable(Connection connection, SqlDialect dialect, Logger logger) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS player_data (" +
+                    "uuid VARCHAR(36) PRIMARY KEY," +
+                    "autoTreeChopPlusEnabled BOOLEAN," +
+                    "dailyUses INT," +
+                    "dailyBlocksBroken INT," +
+                    "lastUseDate VARCHAR(10))");
+        }
+    }
+
+    // 2: UUID as two longs, the date as an epoch day and toggles as a bitfield, the old table is kept as player_data_v1
+    private static void createCompactTable(Connection connection, SqlDialect dialect, Logger logger) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS atc_player (" +
+                    "uuid_high BIGINT NOT NULL," +
+                    "uuid_low BIGINT NOT NULL," +
+                    "toggles INT NOT NULL," +
+                    "daily_uses INT NOT NULL," +
+                    "daily_blocks INT NOT NULL," +
+                    "last_use_day INT NOT NULL," +
+                    "PRIMARY KEY (uuid_high, uuid_low))");
+        }
+        // The daily reset updates by day, leaderboards sort by blocks
+        createIndex(connection, "atc_player_last_use_day", "atc_player", "last_use_day");
+        createIndex(connection, "atc_player_daily_blocks", "atc_player", "daily_blocks");
+
+        // Already renamed by an earlier attempt that failed afterwards
+        if (!tableExists(connection, "player_data")) {
+            return;
+        }
+
+        int copied = 0;
+        int skipped = 0;
+        try (Statement select = connection.createStatement();
+             ResultSet resultSet = select.executeQuery(
+                     "SELECT uuid, autoTreeChopPlusEnabled, dailyUses, dailyBlocksBroken, lastUseDate FROM player_data");
+             // An upsert, rows copied by an earlier attempt are simply copied again
+             PreparedStatement insert = connection.prepareStatement(dialect.getUpsertPlayer())) {
+            while (resultSet.next()) {
+                UUID playerUUID;
+                LocalDate lastUseDate;
+                try {
+                    playerUUID = UUID.fromString(resultSet.getString(1));
+                    String date = resultSet.getString(5);
+                    lastUseDate = date == null ? LocalDate.EPOCH : LocalDate.parse(date);
+                } catch (RuntimeException e) {
+                    skipped++;
+                    continue;
+                }
+                insert.setLong(1, playerUUID.getMostSignificantBits());
+                insert.setLong(2, playerUUID.getLeastSignificantBits());
+                insert.setInt(3, PlayerData.toToggles(resultSet.getBoolean(2)));
+                insert.setInt(4, resultSet.getInt(3));
+                insert.setInt(5, resultSet.getInt(4));
+                insert.setInt(6, (int) lastUseDate.toEpochDay());
+                insert.addBatch();
+                if (++copied % 500 == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        if (skipped > 0) {
+            logger.warning("Skipped " + skipped + " player_data rows with an invalid uuid or date");
+        }
+        logger.info("Copied " + copied + " players into the new player table");
+
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("ALTER TABLE player_data RENAME TO player_data_v1");
+        }
+    }
+}
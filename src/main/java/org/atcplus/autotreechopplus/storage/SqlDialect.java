@@ -0,0 +1,73 @@
+package org.atcplus.autotreechopplus.storage;
+
+/**
+ * The SQL that differs between the supported databases.
+ */
+public enum SqlDialect {
+
+    SQLITE("INSERT OR IGNORE INTO atc_player (uuid_high, uuid_low, toggles, daily_uses, daily_blocks, last_use_day) " +
+            "VALUES (?, ?, ?, 0, 0, ?)",
+            "INSERT INTO atc_player (uuid_high, uuid_low, toggles, daily_uses, daily_blocks, last_use_day) " +
+            "VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT(uuid_high, uuid_low) DO UPDATE SET " +
+            "toggles = excluded.toggles, daily_uses = excluded.daily_uses, " +
+            "daily_blocks = excluded.daily_blocks, last_use_day = excluded.last_use_day"),
+
+    MYSQL("INSERT IGNORE INTO atc_player (uuid_high, uuid_low, toggles, daily_uses, daily_blocks, last_use_day) " +
+            "VALUES (?, ?, ?, 0, 0, ?)",
+            "INSERT INTO atc_player (uuid_high, uuid_low, toggles, daily_uses, daily_blocks, last_use_day) " +
+            "VALUES (?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE " +
+            "toggles = VALUES(toggles), daily_uses = VALUES(daily_uses), " +
+            "daily_blocks = VALUES(daily_blocks), last_use_day = VALUES(last_use_day)"),
+
+    H2("MERGE INTO atc_player t USING (VALUES (CAST(? AS BIGINT), CAST(? AS BIGINT), CAST(? AS INT), CAST(? AS INT))) " +
+            "s (uuid_high, uuid_low, toggles, last_use_day) ON t.uuid_high = s.uuid_high AND t.uuid_low = s.uuid_low " +
+            "WHEN NOT MATCHED THEN INSERT (uuid_high, uuid_low, toggles, daily_uses, daily_blocks, last_use_day) " +
+            "VALUES (s.uuid_high, s.uuid_low, s.toggles, 0, 0, s.last_use_day)",
+            "MERGE INTO atc_player (uuid_high, uuid_low, toggles, daily_uses, daily_blocks, last_use_day) " +
+            "KEY (uuid_high, uuid_low) VALUES (?, ?, ?, ?, ?, ?)");
+
+    public static final String SELECT_PLAYER =
+            "SELECT toggles, daily_uses, daily_blocks, last_use_day FROM atc_player WHERE uuid_high = ? AND uuid_low = ?";
+
+    // Only touches rows with something to reset, which keeps the nightly update to yesterday's players
+    public static final String RESET_DAILY_COUNTERS =
+            "UPDATE atc_player SET daily_uses = 0, daily_blocks = 0 " +
+                    "WHERE last_use_day < ? AND (daily_uses <> 0 OR daily_blocks <> 0)";
+
+    public static final String UPDATE_TOGGLES =
+            "UPDATE atc_player SET toggles = ? WHERE uuid_high = ? AND uuid_low = ?";
+
+    // Adds the increments if the row is on the same day, starts the row's day over if it is older
+    // and drops them if another server already moved on to a newer day.
+    // last_use_day is assigned last, MySQL would otherwise see the new value in the other columns
+    public static final String ADD_DAILY_COUNTERS =
+            "UPDATE atc_player SET " +
+                    "daily_uses = CASE WHEN last_use_day = ? THEN daily_uses + ? WHEN last_use_day < ? THEN ? ELSE daily_uses END, " +
+                    "daily_blocks = CASE WHEN last_use_day = ? THEN daily_blocks + ? WHEN last_use_day < ? THEN ? ELSE daily_blocks END, " +
+                    "last_use_day = CASE WHEN last_use_day < ? THEN ? ELSE last_use_day END " +
+                    "WHERE uuid_high = ? AND uuid_low = ?";
+
+    private final String insertPlayerIfAbsent;
+    private final String upsertPlayer;
+
+    SqlDialect(String insertPlayerIfAbsent, String upsertPlayer) {
+        this.insertPlayerIfAbsent = insertPlayerIfAbsent;
+        this.upsertPlayer = upsertPlayer;
+    }
+
+    /**
+     * Creates the player's row with empty counters if it doesn't exist yet,
+     * parameters: uuid high bits, uuid low bits, toggles, last use epoch day
+     */
+    public String getInsertPlayerIfAbsent() {
+        return insertPlayerIfAbsent;
+    }
+
+    /**
+     * Inserts the player's row or overwrites it,
+     * parameters: uuid high bits, uuid low bits, toggles, daily uses, daily blocks, last use epoch day
+     */
+    public String getUpsertPlayer() {
+        return upsertPlayer;
+    }
+}
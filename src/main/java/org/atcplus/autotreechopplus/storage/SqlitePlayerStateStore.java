@@ -0,0 +1,62 @@
+package org.atcplus.autotreechopplus.storage;
+
+import com.zaxxer.hikari.HikariConfig;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+/**
+ * The default store, a file in the plugin folder.
+ */
+public class SqlitePlayerStateStore extends JdbcPlayerStateStore {
+
+    private final File file;
+
+    public SqlitePlayerStateStore(Logger logger, File file) {
+        super(logger, SqlDialect.SQLITE);
+        this.file = file;
+    }
+
+    @Override
+    public String getName() {
+        return "SQLite";
+    }
+
+    @Override
+    protected HikariConfig createPoolConfig() {
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setJdbcUrl("jdbc:sqlite:" + file.getPath());
+        // SQLite has a single writer anyway, all writes come from the repository's writer thread and the other
+        // connections only serve the loads at login
+        hikariConfig.setMaximumPoolSize(4);
+        // WAL lets those loads read while the writer commits, NORMAL only syncs at checkpoints in WAL mode
+        hikariConfig.addDataSourceProperty("journal_mode", "WAL");
+        hikariConfig.addDataSourceProperty("synchronous", "NORMAL");
+        hikariConfig.addDataSourceProperty("temp_store", "MEMORY");
+        hikariConfig.addDataSourceProperty("cache_size", "-8192"); // 8 MiB per connection
+        // Wait for a checkpoint instead of failing with SQLITE_BUSY
+        hikariConfig.addDataSourceProperty("busy_timeout", "5000");
+        return hikariConfig;
+    }
+
+    @Override
+    public void close() {
+        if (dataSource != null) {
+            checkpoint();
+        }
+        super.close();
+    }
+
+    // Moves the write-ahead log into the database file, so it doesn't stay around until the next start
+    private void checkpoint() {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+        } catch (SQLException e) {
+            logger.warning("Error checkpointing the SQLite database: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.atcplus.autotreechopplus.utils;
+
+import org.bukkit.Location;
+import org.bukkit.block.Block;
+
+/**
+ * Packs block coordinates into a single long, using the same layout as Minecraft's BlockPos:
+ * 26 bits for x, 26 bits for z and 12 bits for y.
+ * The world is not part of the key, so a key is only meaningful next to a known world.
+ */
+public final class BlockKey {
+
+    private static final int XZ_BITS = 26;
+    private static final int Y_BITS = 12;
+    private static final long XZ_MASK = (1L << XZ_BITS) - 1;
+    private static final long Y_MASK = (1L << Y_BITS) - 1;
+    private static final int X_SHIFT = XZ_BITS + Y_BITS;
+    private static final int Z_SHIFT = Y_BITS;
+
+    private BlockKey() {
+    }
+
+    public static long pack(int x, int y, int z) {
+        return ((x & XZ_MASK) << X_SHIFT) | ((z & XZ_MASK) << Z_SHIFT) | (y & Y_MASK);
+    }
+
+    public static long of(Block block) {
+        return pack(block.getX(), block.getY(), block.getZ());
+    }
+
+    public static long of(Location location) {
+        return pack(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    public static int getX(long key) {
+        return (int) (key >> X_SHIFT);
+    }
+
+    public static int getY(long key) {
+        return (int) (key << (64 - Y_BITS) >> (64 - Y_BITS));
+    }
+
+    public static int getZ(long key) {
+        return (int) (key << (64 - X_SHIFT) >> (64 - XZ_BITS));
+    }
+
+    /**
+     * Returns the key of the block at the given offset, without unpacking into a Block
+     */
+    public static long offset(long key, int xOffset, int yOffset, int zOffset) {
+        return pack(getX(key) + xOffset, getY(key) + yOffset, getZ(key) + zOffset);
+    }
+}
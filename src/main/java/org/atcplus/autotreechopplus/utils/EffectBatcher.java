@@ -0,0 +1,101 @@
+package org.atcplus.autotreechopplus.utils;
+
+import org.bukkit.Location;
+import org.bukkit.Sound;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+
+/**
+ * Gathers the sounds and particles of many broken blocks and sends them as a few effects
+ * spread over the bounding box of those blocks, instead of one set of packets per block.
+ * Call {@link #flush()} once per tick. Not thread-safe.
+ */
+public class EffectBatcher {
+
+    // Upper bounds per flush, no matter how many blocks were broken
+    private static final int MAX_SOUNDS = 3;
+    // At most this many leaves worth of particles, spread over the whole box
+    private static final int MAX_LEAF_BURSTS = 4;
+
+    private final World world;
+
+    private int sounds;
+    private int leaves;
+    private BlockData leafData;
+
+    private int minX = Integer.MAX_VALUE;
+    private int minY = Integer.MAX_VALUE;
+    private int minZ = Integer.MAX_VALUE;
+    private int maxX = Integer.MIN_VALUE;
+    private int maxY = Integer.MIN_VALUE;
+    private int maxZ = Integer.MIN_VALUE;
+
+    public EffectBatcher(World world) {
+        this.world = world;
+    }
+
+    /**
+     * Queues the wood break sound for a broken log
+     */
+    public void logBroken(Block block) {
+        sounds++;
+        include(block);
+    }
+
+    /**
+     * Queues the leaf removal particles for a removed leaf, must be called before the leaf is broken
+     */
+    public void leafRemoved(Block block) {
+        if (leafData == null) {
+            leafData = block.getBlockData();
+        }
+        leaves++;
+        include(block);
+    }
+
+    public void flush() {
+        if (sounds == 0 && leaves == 0) {
+            return;
+        }
+
+        double sizeX = maxX - minX + 1;
+        double sizeY = maxY - minY + 1;
+        double sizeZ = maxZ - minZ + 1;
+
+        if (sounds > 0) {
+            // Spread the sounds along the box from bottom to top, a single sound plays in the middle
+            int count = Math.min(sounds, MAX_SOUNDS);
+            for (int i = 0; i < count; i++) {
+                double t = (i + 1.0) / (count + 1.0);
+                Location location = new Location(world, minX + sizeX * t, minY + sizeY * t, minZ + sizeZ * t);
+                world.playSound(location, Sound.BLOCK_WOOD_BREAK, 1.0f, 1.0f);
+            }
+        }
+
+        if (leaves > 0) {
+            Location center = new Location(world, minX + sizeX / 2, minY + sizeY / 2, minZ + sizeZ / 2);
+            EffectUtils.showLeafRemovalEffect(center, sizeX / 2, sizeY / 2, sizeZ / 2,
+                    Math.min(leaves, MAX_LEAF_BURSTS), leafData);
+        }
+
+        reset();
+    }
+
+    private void include(Block block) {
+        minX = Math.min(minX, block.getX());
+        minY = Math.min(minY, block.getY());
+        minZ = Math.min(minZ, block.getZ());
+        maxX = Math.max(maxX, block.getX());
+        maxY = Math.max(maxY, block.getY());
+        maxZ = Math.max(maxZ, block.getZ());
+    }
+
+    private void reset() {
+        sounds = 0;
+        leaves = 0;
+        leafData = null;
+        minX = minY = minZ = Integer.MAX_VALUE;
+        maxX = maxY = maxZ = Integer.MIN_VALUE;
+    }
+}
@@ -2,8 +2,11 @@
 
 import de.cubbossa.tinytranslations.Message;
 import org.bukkit.Color;
+import org.bukkit.Location;
 import org.bukkit.Particle;
+import org.bukkit.World;
 import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
 import org.bukkit.entity.Player;
 
 import static org.atcplus.autotreechopplus.AutoTreeChopPlus.sendMessage;
@@ -33,14 +36,15 @@ public class EffectUtils {
         player.getWorld().spawnParticle(Particle.REDSTONE, block.getLocation().add(0.5, 0.3, 0.5), 10, 0.2, 0.2, 0.2, 0, new Particle.DustOptions(Color.GREEN, 0.8f));
     }
 
-    public static void showLeafRemovalEffect(Player player, Block block) {
-        // Show brown/orange particles to represent decaying leaves
-        player.getWorld().spawnParticle(Particle.REDSTONE, block.getLocation().add(0.5, 0.5, 0.5),
-                15, 0.3, 0.3, 0.3, 0, new Particle.DustOptions(Color.fromRGB(139, 69, 19), 0.8f));
-
-        // Add some falling leaf-like particles
-        player.getWorld().spawnParticle(Particle.BLOCK_CRACK, block.getLocation().add(0.5, 0.8, 0.5),
-                10, 0.2, 0.1, 0.2, 0.1, block.getBlockData());
+    // Leaf removal particles for several leaves at once, spread over the area they were in
+    public static void showLeafRemovalEffect(Location center, double offsetX, double offsetY, double offsetZ,
+                                             int leaves, BlockData blockData) {
+        World world = center.getWorld();
+        world.spawnParticle(Particle.REDSTONE, center, 15 * leaves,
+                Math.max(offsetX, 0.3), Math.max(offsetY, 0.3), Math.max(offsetZ, 0.3),
+                0, new Particle.DustOptions(Color.fromRGB(139, 69, 19), 0.8f));
+        world.spawnParticle(Particle.BLOCK_CRACK, center, 10 * leaves,
+                Math.max(offsetX, 0.2), Math.max(offsetY, 0.1), Math.max(offsetZ, 0.2), 0.1, blockData);
     }
 }
 
@@ -0,0 +1,113 @@
+package org.atcplus.autotreechopplus.utils;
+
+import org.atcplus.autotreechopplus.Config;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.type.Leaves;
+
+import java.util.Arrays;
+
+/**
+ * Works out which leaves lost their tree the way Minecraft does, with the distance to the nearest log
+ * that every leaf block stores. Only the leaves around the removed logs are recomputed, every other leaf
+ * keeps the distance the game already stored for it.
+ */
+public final class LeafDistance {
+
+    // Leaves this far from a log decay in vanilla
+    private static final int DECAY_DISTANCE = 7;
+    private static final int[][] FACE_OFFSETS = {
+            {1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}
+    };
+
+    private LeafDistance() {
+    }
+
+    /**
+     * Recomputes the distances of the given leaves as if the removed logs were gone.
+     * The leaves next to the region start from the logs and the stored distances around them,
+     * from there the distances spread through the region one level at a time.
+     *
+     * @param world       The world of the leaves
+     * @param region      Keys of the leaves whose distance may have depended on the removed logs
+     * @param removedLogs Keys of the logs that were removed
+     * @return the keys of the leaves in the region that are still close enough to a log to stay
+     */
+    public static LongHashSet findAttached(World world, LongHashSet region, LongHashSet removedLogs, Config config) {
+        // One queue of leaf keys per distance, a leaf may be queued more than once
+        long[][] levels = new long[DECAY_DISTANCE][];
+        int[] levelSizes = new int[DECAY_DISTANCE];
+
+        region.forEach((key) -> {
+            int distance = distanceFromOutside(world, key, region, removedLogs, config);
+            if (distance < DECAY_DISTANCE) {
+                enqueue(levels, levelSizes, distance, key);
+            }
+        });
+
+        LongHashSet attached = new LongHashSet(region.size());
+        for (int distance = 1; distance < DECAY_DISTANCE; distance++) {
+            for (int i = 0; i < levelSizes[distance]; i++) {
+                long key = levels[distance][i];
+                // The first time a leaf comes up is its lowest distance
+                if (!attached.add(key) || distance + 1 >= DECAY_DISTANCE) {
+                    continue;
+                }
+                for (int[] offset : FACE_OFFSETS) {
+                    long relativeKey = BlockKey.offset(key, offset[0], offset[1], offset[2]);
+                    if (region.contains(relativeKey) && !attached.contains(relativeKey)) {
+                        enqueue(levels, levelSizes, distance + 1, relativeKey);
+                    }
+                }
+            }
+        }
+        return attached;
+    }
+
+    /**
+     * Whether the leaf was placed by a player, those never decay
+     */
+    public static boolean isPersistent(Block block) {
+        BlockData data = block.getBlockData();
+        return data instanceof Leaves && ((Leaves) data).isPersistent();
+    }
+
+    // The distance a leaf gets from its neighbours outside the region, DECAY_DISTANCE if none of them helps
+    private static int distanceFromOutside(World world, long key, LongHashSet region, LongHashSet removedLogs, Config config) {
+        int best = DECAY_DISTANCE;
+        int x = BlockKey.getX(key);
+        int y = BlockKey.getY(key);
+        int z = BlockKey.getZ(key);
+        for (int[] offset : FACE_OFFSETS) {
+            long relativeKey = BlockKey.offset(key, offset[0], offset[1], offset[2]);
+            if (region.contains(relativeKey) || removedLogs.contains(relativeKey)) {
+                continue;
+            }
+            int relativeX = x + offset[0];
+            int relativeZ = z + offset[2];
+            if (!world.isChunkLoaded(relativeX >> 4, relativeZ >> 4)) {
+                continue;
+            }
+            Block block = world.getBlockAt(relativeX, y + offset[1], relativeZ);
+            if (TreeChopUtils.isLog(block.getType(), config)) {
+                return 1;
+            }
+            BlockData data = block.getBlockData();
+            if (data instanceof Leaves) {
+                best = Math.min(best, ((Leaves) data).getDistance() + 1);
+            }
+        }
+        return best;
+    }
+
+    private static void enqueue(long[][] levels, int[] levelSizes, int distance, long key) {
+        long[] level = levels[distance];
+        if (level == null) {
+            level = levels[distance] = new long[16];
+        } else if (levelSizes[distance] == level.length) {
+            level = levels[distance] = Arrays.copyOf(level, level.length << 1);
+        }
+        level[levelSizes[distance]++] = key;
+    }
+}
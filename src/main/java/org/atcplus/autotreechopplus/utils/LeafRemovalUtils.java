@@ -4,34 +4,37 @@ import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.block.Block;
+import org.bukkit.block.data.type.Leaves;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.event.block.BlockBreakEvent;
 import org.atcplus.autotreechopplus.AutoTreeChopPlus;
 import org.atcplus.autotreechopplus.Config;
 import org.atcplus.autotreechopplus.PlayerConfig;
-import org.atcplus.autotreechopplus.hooks.GriefPreventionHook;
-import org.atcplus.autotreechopplus.hooks.LandsHook;
-import org.atcplus.autotreechopplus.hooks.ResidenceHook;
-import org.atcplus.autotreechopplus.hooks.WorldGuardHook;
+import org.atcplus.autotreechopplus.chop.ChopSession;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class LeafRemovalUtils {
 
-    // Track removed logs during this tree chopping session
-    private static final Map<String, Set<Location>> removedLogsPerSession = new HashMap<>();
-    private static final Set<String> activeLeafRemovalSessions = new HashSet<>();
+    // A session that hasn't done anything for this long is considered lost
+    private static final long SESSION_TIMEOUT_MILLIS = 5 * 60 * 1000L;
+    // How many times the delay a session may be pushed back while logs keep coming in
+    private static final int MAX_DELAY_EXTENSIONS = 5;
+
+    // Track removed logs of every area where trees are being chopped
+    private static final LeafSessionRegistry sessions = new LeafSessionRegistry(SESSION_TIMEOUT_MILLIS);
+    // Leaves whose BlockBreakEvent is being fired right now, so the listener leaves them alone
+    private static final Set<Block> removingLeaves = ConcurrentHashMap.newKeySet();
 
     /**
-     * Initiates leaf removal process after tree chopping
+     * Adds the broken log to the leaf removal of its area, the first log of an area schedules it
      */
-    public static void processLeafRemoval(Block originalLogBlock, Material originalLogType, Player player, AutoTreeChopPlus plugin,
-                                          Config config, PlayerConfig playerConfig,
-                                          boolean worldGuardEnabled, boolean residenceEnabled,
-                                          boolean griefPreventionEnabled, boolean landsEnabled,
-                                          LandsHook landsHook, ResidenceHook residenceHook,
-                                          GriefPreventionHook griefPreventionHook, WorldGuardHook worldGuardHook) {
+    public static void processLeafRemoval(Block originalLogBlock, Material originalLogType, ChopSession session) {
+        Player player = session.getPlayer();
+        AutoTreeChopPlus plugin = session.getPlugin();
+        Config config = session.getConfig();
 
         // Check if leaf removal is enabled
         if (!config.isLeafRemovalEnabled()) {
@@ -43,42 +46,22 @@ public class LeafRemovalUtils {
             return;
         }
 
-        // Prevent multiple leaf removal sessions for the same player
-        String playerKey = player.getUniqueId().toString();
-        if (activeLeafRemovalSessions.contains(playerKey)) {
-            return; // Already processing leaf removal for this player
-        }
-
-        // Create session ID for tracking removed logs
-        String sessionId = playerKey + "_" + System.currentTimeMillis();
-        removedLogsPerSession.put(sessionId, new HashSet<>());
-        activeLeafRemovalSessions.add(playerKey);
-
         final boolean netherFungusContext = config.isNetherFungiEnabled() && (
                 isNetherFungusLog(originalLogType)
                         || originalLogBlock.getWorld().getEnvironment() == World.Environment.NETHER);
 
-        Runnable leafRemovalTask = () -> {
-            Set<Location> checkedLeafLocations = new HashSet<>();
-            Set<Location> processingLeafLocations = new HashSet<>();
+        // Add a delay to ensure all tree logs are broken first
+        long delayTicks = Math.max(config.getLeafRemovalDelayTicks(), 60L); // Minimum 3 seconds
+        long delayMillis = delayTicks * 50L;
 
-            // Add a delay to ensure all tree logs are broken first
-            long delayTicks = Math.max(config.getLeafRemovalDelayTicks(), 60L); // Minimum 3 seconds
+        // Every log pushes the pending removal of its area back, so a forest being cleared is searched once
+        LeafSessionRegistry.Session leafSession = sessions.addRemovedLog(originalLogBlock, session, netherFungusContext,
+                System.currentTimeMillis(), delayMillis, delayMillis * MAX_DELAY_EXTENSIONS);
+        if (!leafSession.claimScheduling()) {
+            return; // Already scheduled by an earlier log of this area
+        }
 
-            if (delayTicks > 0) {
-                // Always use delayed removal to avoid conflicts with tree chopping
-                scheduleDelayedLeafRemoval(originalLogBlock, netherFungusContext, player, plugin, config, playerConfig,
-                        worldGuardEnabled, residenceEnabled, griefPreventionEnabled, landsEnabled,
-                        landsHook, residenceHook, griefPreventionHook, worldGuardHook,
-                        checkedLeafLocations, processingLeafLocations, sessionId, playerKey);
-            } else {
-                // Immediate removal (not recommended but kept for compatibility)
-                startLeafRemoval(originalLogBlock, netherFungusContext, player, plugin, config, playerConfig,
-                        worldGuardEnabled, residenceEnabled, griefPreventionEnabled, landsEnabled,
-                        landsHook, residenceHook, griefPreventionHook, worldGuardHook,
-                        checkedLeafLocations, processingLeafLocations, sessionId, playerKey);
-            }
-        };
+        Runnable leafRemovalTask = () -> scheduleDelayedLeafRemoval(plugin, leafSession, delayTicks);
 
         // Execute based on async configuration
         if (config.isLeafRemovalAsync() && !AutoTreeChopPlus.isFolia()) {
@@ -90,56 +73,49 @@ public class LeafRemovalUtils {
     }
 
     /**
-     * Call this method from TreeChopUtils when a log is broken
+     * Whether the leaf is being broken by a leaf removal right now, the BlockBreakEvent listener should skip it
      */
-    public static void trackRemovedLog(Location logLocation, String playerUUID) {
-        // Add to all active sessions for this player
-        String playerKey = playerUUID;
-        for (Map.Entry<String, Set<Location>> entry : removedLogsPerSession.entrySet()) {
-            if (entry.getKey().startsWith(playerKey + "_")) {
-                entry.getValue().add(logLocation.clone());
-            }
-        }
+    public static boolean isRemovingLeaf(Block block) {
+        return !removingLeaves.isEmpty() && removingLeaves.contains(block);
     }
 
-    private static void scheduleDelayedLeafRemoval(Block originalLogBlock, boolean netherFungus, Player player, AutoTreeChopPlus plugin,
-                                                   Config config, PlayerConfig playerConfig,
-                                                   boolean worldGuardEnabled, boolean residenceEnabled,
-                                                   boolean griefPreventionEnabled, boolean landsEnabled,
-                                                   LandsHook landsHook, ResidenceHook residenceHook,
-                                                   GriefPreventionHook griefPreventionHook, WorldGuardHook worldGuardHook,
-                                                   Set<Location> checkedLeafLocations, Set<Location> processingLeafLocations,
-                                                   String sessionId, String playerKey) {
+    /**
+     * Drops every session, called when the plugin is disabled
+     */
+    public static void clearSessions() {
+        sessions.clear();
+    }
 
-        Runnable delayedTask = () -> startLeafRemoval(originalLogBlock, netherFungus, player, plugin, config, playerConfig,
-                worldGuardEnabled, residenceEnabled, griefPreventionEnabled, landsEnabled,
-                landsHook, residenceHook, griefPreventionHook, worldGuardHook,
-                checkedLeafLocations, processingLeafLocations, sessionId, playerKey);
+    private static void scheduleDelayedLeafRemoval(AutoTreeChopPlus plugin, LeafSessionRegistry.Session leafSession,
+                                                   long delayTicks) {
+        Runnable delayedTask = () -> {
+            long remainingMillis = leafSession.getDueAt() - System.currentTimeMillis();
+            if (remainingMillis > 0) {
+                // More logs came in meanwhile, wait for the rest of the extended delay
+                scheduleDelayedLeafRemoval(plugin, leafSession, (remainingMillis + 49) / 50);
+            } else {
+                startLeafRemoval(leafSession);
+            }
+        };
 
         if (AutoTreeChopPlus.isFolia()) {
-            plugin.getServer().getRegionScheduler().runDelayed(plugin, originalLogBlock.getLocation(),
-                    (task) -> delayedTask.run(), Math.max(config.getLeafRemovalDelayTicks(), 60L));
+            plugin.getServer().getRegionScheduler().runDelayed(plugin, leafSession.getOrigin().getLocation(),
+                    (task) -> delayedTask.run(), delayTicks);
         } else {
-            Bukkit.getScheduler().runTaskLater(plugin, delayedTask, Math.max(config.getLeafRemovalDelayTicks(), 60L));
+            Bukkit.getScheduler().runTaskLater(plugin, delayedTask, delayTicks);
         }
     }
 
-    private static void startLeafRemoval(Block originalLogBlock, boolean netherFungus, Player player, AutoTreeChopPlus plugin,
-                                         Config config, PlayerConfig playerConfig,
-                                         boolean worldGuardEnabled, boolean residenceEnabled,
-                                         boolean griefPreventionEnabled, boolean landsEnabled,
-                                         LandsHook landsHook, ResidenceHook residenceHook,
-                                         GriefPreventionHook griefPreventionHook, WorldGuardHook worldGuardHook,
-                                         Set<Location> checkedLeafLocations, Set<Location> processingLeafLocations,
-                                         String sessionId, String playerKey) {
+    private static void startLeafRemoval(LeafSessionRegistry.Session leafSession) {
+        ChopSession session = leafSession.getChopSession();
+        Config config = session.getConfig();
 
-        // Find all leaves within radius
-        Collection<Block> leavesToRemove = findLeavesToRemove(originalLogBlock, config.getLeafRemovalRadius(),
-                checkedLeafLocations, config, sessionId, netherFungus);
+        // Find the leaves of the canopy around the removed logs, later logs of the area start a new session
+        LongHashSet removedLogs = sessions.startRemoving(leafSession);
+        Collection<Block> leavesToRemove = findLeavesToRemove(leafSession.getOrigin(), config.getLeafRemovalRadius(),
+                config, removedLogs, leafSession.isNetherFungus());
 
         if (leavesToRemove.isEmpty()) {
-            // Clean up session
-            cleanupSession(sessionId, playerKey);
             return;
         }
 
@@ -147,21 +123,21 @@ public class LeafRemovalUtils {
         List<Block> leavesList = new ArrayList<>(leavesToRemove);
         int batchSize = config.getLeafRemovalBatchSize();
 
-        processLeavesBatch(leavesList, 0, batchSize, player, plugin, config, playerConfig,
-                worldGuardEnabled, residenceEnabled, griefPreventionEnabled, landsEnabled,
-                landsHook, residenceHook, griefPreventionHook, worldGuardHook, processingLeafLocations, sessionId, playerKey);
+        processLeavesBatch(leavesList, 0, batchSize, session, new LongHashSet());
     }
 
-    private static void processLeavesBatch(List<Block> leavesList, int startIndex, int batchSize,
-                                           Player player, AutoTreeChopPlus plugin, Config config, PlayerConfig playerConfig,
-                                           boolean worldGuardEnabled, boolean residenceEnabled,
-                                           boolean griefPreventionEnabled, boolean landsEnabled,
-                                           LandsHook landsHook, ResidenceHook residenceHook,
-                                           GriefPreventionHook griefPreventionHook, WorldGuardHook worldGuardHook,
-                                           Set<Location> processingLeafLocations, String sessionId, String playerKey) {
+    private static void processLeavesBatch(List<Block> leavesList, int startIndex, int batchSize, ChopSession session,
+                                           LongHashSet processingLeafLocations) {
+        Player player = session.getPlayer();
+        AutoTreeChopPlus plugin = session.getPlugin();
+        Config config = session.getConfig();
+        PlayerConfig playerConfig = session.getPlayerConfig();
 
         int endIndex = Math.min(startIndex + batchSize, leavesList.size());
-        int leavesRemovedThisBatch = 0;
+        boolean limitReached = false;
+        // One set of particles for the whole batch instead of one per leaf
+        EffectBatcher effects = config.getLeafRemovalVisualEffects() && startIndex < endIndex
+                ? new EffectBatcher(leavesList.get(startIndex).getWorld()) : null;
 
         for (int i = startIndex; i < endIndex; i++) {
             Block leafBlock = leavesList.get(i);
@@ -170,23 +146,21 @@ public class LeafRemovalUtils {
             if (config.getLeafRemovalCountsTowardsLimit()) {
                 if (!PermissionUtils.hasVipBlock(player, playerConfig, config) &&
                         playerConfig.getDailyBlocksBroken() >= config.getMaxBlocksPerDay()) {
+                    limitReached = true;
                     break; // Hit the daily block limit
                 }
             }
 
-            if (removeLeafBlock(leafBlock, player, config, playerConfig, worldGuardEnabled, residenceEnabled,
-                    griefPreventionEnabled, landsEnabled, landsHook, residenceHook,
-                    griefPreventionHook, worldGuardHook, processingLeafLocations)) {
-                leavesRemovedThisBatch++;
-            }
+            removeLeafBlock(leafBlock, session, processingLeafLocations, effects);
+        }
+        if (effects != null) {
+            effects.flush();
         }
 
         // Schedule next batch if there are more leaves to process
-        if (endIndex < leavesList.size() && leavesRemovedThisBatch > 0) {
-            Runnable nextBatchTask = () -> processLeavesBatch(leavesList, endIndex, batchSize, player, plugin,
-                    config, playerConfig, worldGuardEnabled, residenceEnabled, griefPreventionEnabled,
-                    landsEnabled, landsHook, residenceHook, griefPreventionHook, worldGuardHook,
-                    processingLeafLocations, sessionId, playerKey);
+        if (endIndex < leavesList.size() && !limitReached) {
+            Runnable nextBatchTask = () -> processLeavesBatch(leavesList, endIndex, batchSize, session,
+                    processingLeafLocations);
 
             if (AutoTreeChopPlus.isFolia()) {
                 plugin.getServer().getRegionScheduler().runDelayed(plugin, leavesList.get(endIndex).getLocation(),
@@ -194,49 +168,43 @@ public class LeafRemovalUtils {
             } else {
                 Bukkit.getScheduler().runTaskLater(plugin, nextBatchTask, 1L);
             }
-        } else if (endIndex >= leavesList.size()) {
-            // Clean up session when done
-            cleanupSession(sessionId, playerKey);
         }
     }
 
-    private static void cleanupSession(String sessionId, String playerKey) {
-        removedLogsPerSession.remove(sessionId);
-        activeLeafRemovalSessions.remove(playerKey);
-    }
-
-    private static boolean removeLeafBlock(Block leafBlock, Player player, Config config, PlayerConfig playerConfig,
-                                           boolean worldGuardEnabled, boolean residenceEnabled,
-                                           boolean griefPreventionEnabled, boolean landsEnabled,
-                                           LandsHook landsHook, ResidenceHook residenceHook,
-                                           GriefPreventionHook griefPreventionHook, WorldGuardHook worldGuardHook,
-                                           Set<Location> processingLeafLocations) {
+    private static boolean removeLeafBlock(Block leafBlock, ChopSession session, LongHashSet processingLeafLocations,
+                                           EffectBatcher effects) {
+        Player player = session.getPlayer();
+        Config config = session.getConfig();
+        PlayerConfig playerConfig = session.getPlayerConfig();
 
         Location leafLocation = leafBlock.getLocation();
+        long leafKey = BlockKey.of(leafBlock);
 
-        // Skip if already processed
-        if (processingLeafLocations.contains(leafLocation)) {
+        // Skip if already processed, or removed by another session of the area meanwhile
+        if (processingLeafLocations.contains(leafKey) || !isLeafBlock(leafBlock.getType(), config)) {
             return false;
         }
 
-        // Permission checks using existing methods
-        if (!TreeChopUtils.resCheck(player, leafLocation, residenceEnabled, residenceHook) ||
-                !TreeChopUtils.landsCheck(player, leafLocation, landsEnabled, landsHook) ||
-                !TreeChopUtils.gfCheck(player, leafLocation, griefPreventionEnabled, griefPreventionHook) ||
-                !TreeChopUtils.wgCheck(player, leafLocation, worldGuardEnabled, worldGuardHook)) {
+        // Permission checks using the session's protection hooks
+        if (!session.canBuild(leafLocation)) {
             return false;
         }
 
-        processingLeafLocations.add(leafLocation);
+        processingLeafLocations.add(leafKey);
 
         // Call BlockBreakEvent for the leaf block
         BlockBreakEvent breakEvent = new BlockBreakEvent(leafBlock, player);
-        Bukkit.getPluginManager().callEvent(breakEvent);
+        removingLeaves.add(leafBlock);
+        try {
+            Bukkit.getPluginManager().callEvent(breakEvent);
+        } finally {
+            removingLeaves.remove(leafBlock);
+        }
 
         if (!breakEvent.isCancelled()) {
             // Show visual effect if enabled
-            if (config.getLeafRemovalVisualEffects()) {
-                EffectUtils.showLeafRemovalEffect(player, leafBlock);
+            if (effects != null) {
+                effects.leafRemoved(leafBlock);
             }
 
             // Break the leaf block
@@ -251,101 +219,177 @@ public class LeafRemovalUtils {
                 playerConfig.incrementDailyBlocksBroken();
             }
 
-            processingLeafLocations.remove(leafLocation);
+            processingLeafLocations.remove(leafKey);
             return true;
         }
 
-        processingLeafLocations.remove(leafLocation);
+        processingLeafLocations.remove(leafKey);
         return false;
     }
 
-    private static Collection<Block> findLeavesToRemove(Block centerBlock, int radius,
-                                                        Set<Location> checkedLocations, Config config, String sessionId, boolean netherFungus) {
-        Set<Block> leavesToRemove = new HashSet<>();
-        Set<Location> visitedInThisSearch = new HashSet<>();
-        Location center = centerBlock.getLocation();
-
-        int scanRadius = radius;
-
-        // Get removed logs for this session
-        Set<Location> removedLogs = removedLogsPerSession.get(sessionId);
-        if (removedLogs == null) {
-            removedLogs = new HashSet<>();
+    /**
+     * Flood fills through leaves, starting next to the logs removed in this session, up to maxDistance steps away.
+     * Only the canopy is visited, so the work grows with the size of the tree instead of with the radius cubed.
+     * The leaves found are classified afterwards, every check that needs connectivity runs once for the whole canopy.
+     * Smart mode floods a bit further, so a leaf held by a log outside the radius is still seen as connected.
+     */
+    private static Collection<Block> findLeavesToRemove(Block originalLogBlock, int maxDistance, Config config,
+                                                        LongHashSet removedLogs, boolean netherFungus) {
+        List<Block> canopy = new ArrayList<>();
+        // Leaves past the radius, only searched for connections to remaining logs
+        List<Block> fringe = new ArrayList<>();
+        LongHashSet connectivityKeys = new LongHashSet();
+        World world = originalLogBlock.getWorld();
+        // A connection within SMART_CONNECTION_DISTANCE steps can reach this far past the radius
+        int fringeDistance = usesConnectivity(config) ? SMART_CONNECTION_DISTANCE - 1 : 0;
+
+        // Queue of block keys, the removed logs are the starting level
+        LongHashSet visited = new LongHashSet(removedLogs.size() * 4);
+        visited.addAll(removedLogs);
+        long[] queue = removedLogs.toArray(64);
+        int queueTail = removedLogs.size();
+        long originKey = BlockKey.of(originalLogBlock);
+        if (visited.add(originKey)) {
+            if (queueTail == queue.length) {
+                queue = Arrays.copyOf(queue, queue.length << 1);
+            }
+            queue[queueTail++] = originKey;
         }
 
-        // Find all leaf blocks within radius
-        for (int x = -scanRadius; x <= scanRadius; x++) {
-            for (int y = -scanRadius; y <= scanRadius; y++) {
-                for (int z = -scanRadius; z <= scanRadius; z++) {
-                    Location checkLoc = center.clone().add(x, y, z);
-                    Block checkBlock = checkLoc.getBlock();
-
-                    if (isLeafBlock(checkBlock.getType(), config) &&
-                            !checkedLocations.contains(checkLoc) &&
-                            !visitedInThisSearch.contains(checkLoc)) {
-
-                        // Use improved orphaned detection
-                        if (isOrphanedLeaf(checkBlock, config, removedLogs, netherFungus)) {
-                            leavesToRemove.add(checkBlock);
+        int head = 0;
+        for (int distance = 1; distance <= maxDistance + fringeDistance && head < queueTail; distance++) {
+            boolean inCanopy = distance <= maxDistance;
+            int levelEnd = queueTail;
+            while (head < levelEnd) {
+                long key = queue[head++];
+                int x = BlockKey.getX(key);
+                int y = BlockKey.getY(key);
+                int z = BlockKey.getZ(key);
+
+                for (int xOffset = -1; xOffset <= 1; xOffset++) {
+                    for (int yOffset = -1; yOffset <= 1; yOffset++) {
+                        for (int zOffset = -1; zOffset <= 1; zOffset++) {
+                            if (xOffset == 0 && yOffset == 0 && zOffset == 0) continue;
+
+                            long relativeKey = BlockKey.offset(key, xOffset, yOffset, zOffset);
+                            if (!visited.add(relativeKey)) {
+                                continue;
+                            }
+                            int relativeX = x + xOffset;
+                            int relativeZ = z + zOffset;
+                            // Never load chunks just to look for leaves
+                            if (!world.isChunkLoaded(relativeX >> 4, relativeZ >> 4)) {
+                                continue;
+                            }
+                            Block checkBlock = world.getBlockAt(relativeX, y + yOffset, relativeZ);
+                            if (!isLeafBlock(checkBlock.getType(), config)) {
+                                continue;
+                            }
+
+                            // Keep flooding through leaves that stay, other leaves of the canopy may be behind them
+                            if (queueTail == queue.length) {
+                                queue = Arrays.copyOf(queue, queue.length << 1);
+                            }
+                            queue[queueTail++] = relativeKey;
+
+                            // Every leaf is reached once, visited already skips the ones seen before
+                            if (inCanopy) {
+                                canopy.add(checkBlock);
+                            } else {
+                                fringe.add(checkBlock);
+                            }
+                            connectivityKeys.add(relativeKey);
                         }
-                        visitedInThisSearch.add(checkLoc);
                     }
                 }
             }
         }
 
-        checkedLocations.addAll(visitedInThisSearch);
-        return leavesToRemove;
+        return classifyCanopy(world, canopy, fringe, connectivityKeys, config, removedLogs, netherFungus);
     }
 
-    private static boolean isOrphanedLeaf(Block leafBlock, Config config, Set<Location> removedLogs, boolean netherFungus) {
-        if (netherFungus && isNetherFungusLeaf(leafBlock.getType())) {
-            return isConnectedToRemovedLog(leafBlock, removedLogs, new HashSet<>(), 0);
-        }
+    // Whether the mode may need the leaves to be connected to a remaining log
+    private static boolean usesConnectivity(Config config) {
+        String mode = config.getLeafRemovalMode().toLowerCase();
+        return !mode.equals("aggressive") && !mode.equals("radius");
+    }
 
+    /**
+     * Picks the orphaned leaves out of the canopy
+     */
+    private static List<Block> classifyCanopy(World world, List<Block> canopy, List<Block> fringe,
+                                              LongHashSet connectivityKeys, Config config,
+                                              LongHashSet removedLogs, boolean netherFungus) {
+        List<Block> leavesToRemove = new ArrayList<>();
         String mode = config.getLeafRemovalMode().toLowerCase();
+        boolean distanceMode = mode.equals("distance");
 
-        switch (mode) {
-            case "aggressive":
-                // Remove ALL leaves within radius - most thorough
-                return true;
+        // Filled on first use, each is a single pass over the canopy
+        LongHashSet connectedToActiveLog = null;
+        LongHashSet connectedToRemovedLog = null;
+        LongHashSet distanceRegion = new LongHashSet();
+        List<Block> distanceLeaves = new ArrayList<>();
 
-            case "radius":
-                // Remove leaves that don't have logs within 4 blocks (simple distance check)
-                return !hasNearbyActiveLog(leafBlock.getLocation(), config, removedLogs, 4);
+        for (Block leafBlock : canopy) {
+            long leafKey = BlockKey.of(leafBlock);
+            boolean orphaned;
 
-            case "smart":
-            default:
-                // Smart detection with pathfinding (current approach)
-                Location leafLoc = leafBlock.getLocation();
-
-                // Strategy 1: Check for nearby logs that weren't removed
-                if (!hasNearbyActiveLog(leafLoc, config, removedLogs, 6)) {
-                    return true; // No active logs nearby - definitely orphaned
+            if (netherFungus && isNetherFungusLeaf(leafBlock.getType())) {
+                if (connectedToRemovedLog == null) {
+                    connectedToRemovedLog = findConnectedToRemovedLogs(world, removedLogs);
                 }
-
-                // Strategy 2: Advanced - check if leaf is connected to remaining logs via other leaves
-                if (!isConnectedToActiveLog(leafBlock, config, removedLogs, new HashSet<>(), 0)) {
-                    return true; // Not connected to any remaining logs
+                orphaned = connectedToRemovedLog.contains(leafKey);
+            } else if (mode.equals("aggressive")) {
+                // Remove ALL leaves within radius - most thorough
+                orphaned = true;
+            } else if (mode.equals("radius")) {
+                // Remove leaves that don't have logs within 4 blocks (simple distance check)
+                orphaned = !hasNearbyActiveLog(leafBlock, config, removedLogs, 4);
+            } else if (LeafDistance.isPersistent(leafBlock)) {
+                // Placed by a player, the game never lets these decay either
+                orphaned = false;
+            } else if (distanceMode && leafBlock.getBlockData() instanceof Leaves) {
+                // Decided below, once the distances of the whole canopy are known
+                distanceRegion.add(leafKey);
+                distanceLeaves.add(leafBlock);
+                continue;
+            } else {
+                // Smart detection: the leaf has to be connected to a remaining log through leaves
+                if (connectedToActiveLog == null) {
+                    connectedToActiveLog = findConnectedToActiveLogs(world, canopy, fringe, connectivityKeys, config,
+                            removedLogs);
                 }
+                orphaned = !connectedToActiveLog.contains(leafKey);
+            }
 
-                return false; // Connected to remaining logs - keep it
+            if (orphaned) {
+                leavesToRemove.add(leafBlock);
+            }
+        }
+
+        if (!distanceLeaves.isEmpty()) {
+            LongHashSet attached = LeafDistance.findAttached(world, distanceRegion, removedLogs, config);
+            for (Block leafBlock : distanceLeaves) {
+                if (!attached.contains(BlockKey.of(leafBlock))) {
+                    leavesToRemove.add(leafBlock);
+                }
+            }
         }
+        return leavesToRemove;
     }
 
     // Updated helper method with configurable radius:
-    private static boolean hasNearbyActiveLog(Location leafLoc, Config config, Set<Location> removedLogs, int checkRadius) {
+    private static boolean hasNearbyActiveLog(Block leafBlock, Config config, LongHashSet removedLogs, int checkRadius) {
         for (int x = -checkRadius; x <= checkRadius; x++) {
             for (int y = -checkRadius; y <= checkRadius; y++) {
                 for (int z = -checkRadius; z <= checkRadius; z++) {
                     if (x == 0 && y == 0 && z == 0) continue; // Skip the leaf itself
 
-                    Location checkLoc = leafLoc.clone().add(x, y, z);
-                    Block checkBlock = checkLoc.getBlock();
+                    Block checkBlock = leafBlock.getRelative(x, y, z);
 
                     // If there's a log here AND it wasn't removed in this session
                     if (TreeChopUtils.isLog(checkBlock.getType(), config) &&
-                            !removedLogs.contains(checkLoc)) {
+                            !removedLogs.contains(BlockKey.of(checkBlock))) {
                         return true; // Found an active log nearby
                     }
                 }
@@ -355,88 +399,124 @@ public class LeafRemovalUtils {
         return false; // No active logs found
     }
 
-    private static boolean isConnectedToActiveLog(Block startBlock, Config config, Set<Location> removedLogs, Set<Location> visited, int depth) {
-        // Prevent infinite recursion and limit search depth for performance
-        if (depth > 8 || visited.size() > 100) {
-            return false;
-        }
-
-        Location startLoc = startBlock.getLocation();
-
-        // Already visited this location
-        if (visited.contains(startLoc)) {
-            return false;
+    /**
+     * One breadth first search through the canopy and its fringe, starting at every leaf next to a log that is
+     * still standing. A leaf reached within SMART_CONNECTION_DISTANCE steps keeps its tree.
+     *
+     * @return the keys of the leaves that are connected to a remaining log
+     */
+    private static LongHashSet findConnectedToActiveLogs(World world, List<Block> canopy, List<Block> fringe,
+                                                         LongHashSet connectivityKeys, Config config,
+                                                         LongHashSet removedLogs) {
+        int size = canopy.size() + fringe.size();
+        LongHashSet connected = new LongHashSet(size);
+        long[] queue = new long[Math.max(size, 16)];
+        int queueTail = 0;
+
+        // The first level are the leaves that touch a remaining log
+        for (List<Block> leaves : List.of(canopy, fringe)) {
+            for (Block leafBlock : leaves) {
+                long leafKey = BlockKey.of(leafBlock);
+                if (touchesActiveLog(world, leafKey, config, removedLogs)) {
+                    connected.add(leafKey);
+                    queue[queueTail++] = leafKey;
+                }
+            }
         }
-        visited.add(startLoc);
-
-        // Check immediate surroundings (6 directions + diagonals)
-        for (int x = -1; x <= 1; x++) {
-            for (int y = -1; y <= 1; y++) {
-                for (int z = -1; z <= 1; z++) {
-                    if (x == 0 && y == 0 && z == 0) continue;
-
-                    Location checkLoc = startLoc.clone().add(x, y, z);
-                    Block checkBlock = checkLoc.getBlock();
-                    Material checkType = checkBlock.getType();
 
-                    // Found an active log - connected!
-                    if (TreeChopUtils.isLog(checkType, config) && !removedLogs.contains(checkLoc)) {
-                        return true;
-                    }
-
-                    // Found another leaf - continue searching through it
-                    if (isLeafBlock(checkType, config) && !visited.contains(checkLoc)) {
-                        if (isConnectedToActiveLog(checkBlock, config, removedLogs, visited, depth + 1)) {
-                            return true;
+        int head = 0;
+        for (int distance = 2; distance <= SMART_CONNECTION_DISTANCE && head < queueTail; distance++) {
+            int levelEnd = queueTail;
+            while (head < levelEnd) {
+                long key = queue[head++];
+                for (int xOffset = -1; xOffset <= 1; xOffset++) {
+                    for (int yOffset = -1; yOffset <= 1; yOffset++) {
+                        for (int zOffset = -1; zOffset <= 1; zOffset++) {
+                            long relativeKey = BlockKey.offset(key, xOffset, yOffset, zOffset);
+                            // Every leaf is queued at most once, so the queue never outgrows the leaves
+                            if (connectivityKeys.contains(relativeKey) && connected.add(relativeKey)) {
+                                queue[queueTail++] = relativeKey;
+                            }
                         }
                     }
                 }
             }
         }
-
-        return false; // No connection to active logs found
+        return connected;
     }
 
-    private static boolean isConnectedToRemovedLog(Block startBlock, Set<Location> removedLogs, Set<Location> visited, int depth) {
-        if (removedLogs == null || removedLogs.isEmpty()) {
-            return true;
-        }
-        if (depth > 12 || visited.size() > 200) {
-            return false;
-        }
-
-        Location startLoc = startBlock.getLocation();
-        if (!visited.add(startLoc)) {
-            return false;
-        }
-        if (removedLogs.contains(startLoc)) {
-            return true;
-        }
-
-        for (int x = -1; x <= 1; x++) {
-            for (int y = -1; y <= 1; y++) {
-                for (int z = -1; z <= 1; z++) {
-                    if (x == 0 && y == 0 && z == 0) {
+    private static boolean touchesActiveLog(World world, long leafKey, Config config, LongHashSet removedLogs) {
+        int x = BlockKey.getX(leafKey);
+        int y = BlockKey.getY(leafKey);
+        int z = BlockKey.getZ(leafKey);
+        for (int xOffset = -1; xOffset <= 1; xOffset++) {
+            for (int yOffset = -1; yOffset <= 1; yOffset++) {
+                for (int zOffset = -1; zOffset <= 1; zOffset++) {
+                    if (xOffset == 0 && yOffset == 0 && zOffset == 0) continue;
+
+                    int relativeX = x + xOffset;
+                    int relativeZ = z + zOffset;
+                    if (!world.isChunkLoaded(relativeX >> 4, relativeZ >> 4)) {
                         continue;
                     }
-
-                    Location checkLoc = startLoc.clone().add(x, y, z);
-                    if (removedLogs.contains(checkLoc)) {
+                    if (TreeChopUtils.isLog(world.getBlockAt(relativeX, y + yOffset, relativeZ).getType(), config)
+                            && !removedLogs.contains(BlockKey.offset(leafKey, xOffset, yOffset, zOffset))) {
                         return true;
                     }
+                }
+            }
+        }
+        return false;
+    }
 
-                    Block neighbourBlock = checkLoc.getBlock();
-                    Material neighbourType = neighbourBlock.getType();
-                    if (isNetherFungusLeaf(neighbourType) || NETHER_FUNGUS_LOGS.contains(neighbourType)) {
-                        if (isConnectedToRemovedLog(neighbourBlock, removedLogs, visited, depth + 1)) {
-                            return true;
+    /**
+     * One breadth first search from all removed logs through wart blocks, shroomlights and stems,
+     * up to NETHER_CONNECTION_DISTANCE steps away
+     *
+     * @return the keys of the blocks that hung on the removed logs
+     */
+    private static LongHashSet findConnectedToRemovedLogs(World world, LongHashSet removedLogs) {
+        LongHashSet connected = new LongHashSet(removedLogs.size() * 4);
+        connected.addAll(removedLogs);
+        long[] queue = removedLogs.toArray(64);
+        int queueTail = removedLogs.size();
+
+        int head = 0;
+        for (int distance = 1; distance <= NETHER_CONNECTION_DISTANCE && head < queueTail; distance++) {
+            int levelEnd = queueTail;
+            while (head < levelEnd) {
+                long key = queue[head++];
+                int x = BlockKey.getX(key);
+                int y = BlockKey.getY(key);
+                int z = BlockKey.getZ(key);
+
+                for (int xOffset = -1; xOffset <= 1; xOffset++) {
+                    for (int yOffset = -1; yOffset <= 1; yOffset++) {
+                        for (int zOffset = -1; zOffset <= 1; zOffset++) {
+                            long relativeKey = BlockKey.offset(key, xOffset, yOffset, zOffset);
+                            if (connected.contains(relativeKey)) {
+                                continue;
+                            }
+                            int relativeX = x + xOffset;
+                            int relativeZ = z + zOffset;
+                            if (!world.isChunkLoaded(relativeX >> 4, relativeZ >> 4)) {
+                                continue;
+                            }
+                            Material relativeType = world.getBlockAt(relativeX, y + yOffset, relativeZ).getType();
+                            if (!isNetherFungusLeaf(relativeType) && !NETHER_FUNGUS_LOGS.contains(relativeType)) {
+                                continue;
+                            }
+                            connected.add(relativeKey);
+                            if (queueTail == queue.length) {
+                                queue = Arrays.copyOf(queue, queue.length << 1);
+                            }
+                            queue[queueTail++] = relativeKey;
                         }
                     }
                 }
             }
         }
-
-        return false;
+        return connected;
     }
 
 
@@ -452,6 +532,11 @@ public class LeafRemovalUtils {
         return material != null && NETHER_FUNGUS_LOGS.contains(material);
     }
 
+    // Steps through leaves from a remaining log after which smart mode treats a leaf as orphaned
+    private static final int SMART_CONNECTION_DISTANCE = 6;
+    // Steps from a removed stem within which nether wart and shroomlights go with it
+    private static final int NETHER_CONNECTION_DISTANCE = 12;
+
     private static final EnumSet<Material> NETHER_FUNGUS_LEAVES = EnumSet.of(
             Material.NETHER_WART_BLOCK,
             Material.WARPED_WART_BLOCK,
@@ -469,12 +554,3 @@ public class LeafRemovalUtils {
             Material.STRIPPED_WARPED_HYPHAE
     );
 }
-
-
-
-
-
-
-
-
-
@@ -0,0 +1,196 @@
+package org.atcplus.autotreechopplus.utils;
+
+import org.atcplus.autotreechopplus.chop.ChopSession;
+import org.bukkit.block.Block;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The pending leaf removal of every player and area, looked up by key so tracking a log doesn't depend on
+ * how many other sessions are running. Safe to use from several Folia region threads at once.
+ * Logs a player breaks in the same area, e.g. while clearing a forest, go into the same session.
+ * Each new log pushes its start back, so the area is searched once when the chopping stops.
+ * Players chopping next to each other keep their own sessions, so leaves are always removed with the protection,
+ * daily limit and tool of the player whose tree they belonged to. Leaves one of them already removed are skipped by the other.
+ * Once its leaves are searched a session leaves the registry, new logs in the area start the next one.
+ * Sessions whose task never came back, e.g. because the chunk unloaded, expire instead of blocking the area.
+ */
+public class LeafSessionRegistry {
+
+    // Areas are 2x2 chunks, aligned so an area never spans two Folia regions
+    private static final int AREA_SHIFT = 5;
+
+    public enum State {
+        // Logs broken in the area are added to the session
+        COLLECTING,
+        // The leaves were searched, the session only removes them now
+        REMOVING
+    }
+
+    /**
+     * A group of chunks in a world
+     */
+    public record Area(UUID worldId, int areaX, int areaZ) {
+
+        public static Area of(Block block) {
+            return new Area(block.getWorld().getUID(), block.getX() >> AREA_SHIFT, block.getZ() >> AREA_SHIFT);
+        }
+    }
+
+    /**
+     * Sessions are per player and area
+     */
+    private record Key(UUID playerUUID, Area area) {
+    }
+
+    /**
+     * The pending or running leaf removal of one player in one area
+     */
+    public static final class Session {
+
+        private final Key key;
+        private final Block origin;
+        private final long createdAt;
+        private final LongHashSet removedLogs = new LongHashSet();
+        private ChopSession chopSession;
+        private boolean netherFungus;
+        private boolean scheduled;
+        private long dueAt;
+        private volatile State state = State.COLLECTING;
+        private volatile long lastActivity;
+
+        private Session(Key key, Block origin, long now) {
+            this.key = key;
+            this.origin = origin;
+            this.createdAt = now;
+            this.lastActivity = now;
+        }
+
+        public Area getArea() {
+            return key.area();
+        }
+
+        /**
+         * The first log of the session, the search starts from here and its region thread runs the session
+         */
+        public Block getOrigin() {
+            return origin;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * The latest chop of the session's player, it removes the leaves
+         */
+        public synchronized ChopSession getChopSession() {
+            return chopSession;
+        }
+
+        public synchronized boolean isNetherFungus() {
+            return netherFungus;
+        }
+
+        /**
+         * When the session should start, the latest log plus the delay but never later than maxDelayMillis
+         * after the first log
+         */
+        public synchronized long getDueAt() {
+            return dueAt;
+        }
+
+        /**
+         * Adds a removed log and pushes the start back
+         *
+         * @return false if the leaves were already searched, the log belongs to the next session then
+         */
+        private synchronized boolean merge(long logKey, ChopSession chop, boolean nether, long now,
+                                           long delayMillis, long maxDelayMillis) {
+            if (state != State.COLLECTING) {
+                return false;
+            }
+            removedLogs.add(logKey);
+            chopSession = chop;
+            netherFungus |= nether;
+            dueAt = Math.min(now + delayMillis, createdAt + maxDelayMillis);
+            lastActivity = now;
+            return true;
+        }
+
+        /**
+         * Whether the caller is the one to schedule the session, true exactly once
+         */
+        public synchronized boolean claimScheduling() {
+            if (scheduled) {
+                return false;
+            }
+            scheduled = true;
+            return true;
+        }
+
+        private synchronized LongHashSet startRemoving() {
+            state = State.REMOVING;
+            LongHashSet logs = new LongHashSet(removedLogs.size());
+            logs.addAll(removedLogs);
+            return logs;
+        }
+
+        private boolean isExpired(long now, long timeoutMillis) {
+            return now - lastActivity > timeoutMillis;
+        }
+    }
+
+    private final Map<Key, Session> sessions = new ConcurrentHashMap<>();
+    private final long timeoutMillis;
+
+    public LeafSessionRegistry(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Adds a removed log to the pending session of the chop's player in the log's area, starting one if there is none
+     *
+     * @param delayMillis    How long the session waits after this log
+     * @param maxDelayMillis How long the session may be pushed back in total
+     * @return the session the log went into
+     */
+    public Session addRemovedLog(Block logBlock, ChopSession chop, boolean netherFungus, long now,
+                                 long delayMillis, long maxDelayMillis) {
+        Key sessionKey = new Key(chop.getPlayer().getUniqueId(), Area.of(logBlock));
+        long logKey = BlockKey.of(logBlock);
+        while (true) {
+            Session session = sessions.compute(sessionKey, (key, existing) ->
+                    existing == null || existing.isExpired(now, timeoutMillis) ? new Session(key, logBlock, now) : existing);
+            if (session.merge(logKey, chop, netherFungus, now, delayMillis, maxDelayMillis)) {
+                return session;
+            }
+            // Its leaves are being searched right now, it leaves the registry in a moment
+            sessions.remove(sessionKey, session);
+        }
+    }
+
+    /**
+     * Stops the session from collecting logs and takes it out of the registry
+     *
+     * @return the logs removed in the session's area
+     */
+    public LongHashSet startRemoving(Session session) {
+        LongHashSet logs = session.startRemoving();
+        sessions.remove(session.key, session);
+        return logs;
+    }
+
+    /**
+     * Drops every pending session, for onDisable
+     */
+    public void clear() {
+        sessions.clear();
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+}
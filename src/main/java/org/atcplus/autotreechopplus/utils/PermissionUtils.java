@@ -13,6 +13,18 @@ public class PermissionUtils {
         return false;
     }
 
+    // How many more blocks the player may break today, used to bound tree scans
+    public static int getRemainingBlocks(Player player, PlayerConfig playerConfig, Config config) {
+        boolean vip = player.hasPermission("atcplus.vip");
+        if (vip && !config.getLimitVipUsage()) return Integer.MAX_VALUE;
+
+        int dailyBlocksBroken = playerConfig.getDailyBlocksBroken();
+        int remaining = config.getMaxBlocksPerDay() - dailyBlocksBroken;
+        if (vip) remaining = Math.max(remaining, config.getVipBlocksPerDay() - dailyBlocksBroken + 1);
+        // The first log is always broken, the caller already checked the limit for it
+        return Math.max(remaining, 1);
+    }
+
     public static boolean hasVipBlock(Player player, PlayerConfig playerConfig, Config config) {
         if (!config.getLimitVipUsage()) return player.hasPermission("atcplus.vip");
         if (player.hasPermission("atcplus.vip"))
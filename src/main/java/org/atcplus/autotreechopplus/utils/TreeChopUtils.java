@@ -3,240 +3,278 @@ package org.atcplus.autotreechopplus.utils;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
-import org.bukkit.block.data.BlockData;
 import org.bukkit.enchantments.Enchantment;
 import org.bukkit.entity.Player;
 import org.bukkit.event.block.BlockBreakEvent;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.Damageable;
-import org.jetbrains.annotations.NotNull;
 import org.atcplus.autotreechopplus.AutoTreeChopPlus;
 import org.atcplus.autotreechopplus.Config;
 import org.atcplus.autotreechopplus.PlayerConfig;
-import org.atcplus.autotreechopplus.hooks.GriefPreventionHook;
-import org.atcplus.autotreechopplus.hooks.LandsHook;
-import org.atcplus.autotreechopplus.hooks.ResidenceHook;
-import org.atcplus.autotreechopplus.hooks.WorldGuardHook;
+import org.atcplus.autotreechopplus.chop.ChopSession;
+import org.atcplus.autotreechopplus.chop.DropCollector;
+import org.atcplus.autotreechopplus.chop.ScannedTree;
+import org.atcplus.autotreechopplus.chop.SnapshotBlockSource;
+import org.atcplus.autotreechopplus.chop.TreeScanner;
 
 import java.util.Random;
-import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
 
 import static org.atcplus.autotreechopplus.AutoTreeChopPlus.sendMessage;
 
 public class TreeChopUtils {
 
-    private static final Random random = new Random();
+    private static final int BINOMIAL_CHUNK = 500;
 
-    public static void chopTree(Block block, Player player, boolean ConnectedBlocks, ItemStack tool, Location location, Material material, BlockData blockData, AutoTreeChopPlus plugin, Set<Location> processingLocations, Set<Location> checkedLocations, Config config, PlayerConfig playerConfig, boolean worldGuardEnabled, boolean residenceEnabled, boolean griefPreventionEnabled, boolean landsEnabled, LandsHook landsHook, ResidenceHook residenceHook, GriefPreventionHook griefPreventionHook, WorldGuardHook worldGuardHook) {
-        // Permission checks
-        if (!resCheck(player, location, residenceEnabled, residenceHook) || !landsCheck(player, location, landsEnabled, landsHook) ||
-                !gfCheck(player, location, griefPreventionEnabled, griefPreventionHook) || !wgCheck(player, location, worldGuardEnabled, worldGuardHook)) {
-            return;
-        }
-        // Skip if already checked or being processed
-        if (checkedLocations.contains(block.getLocation()) ||
-                processingLocations.contains(block.getLocation())) {
-            return;
-        }
-
-        checkedLocations.add(block.getLocation());
-
-        if (!isLog(block.getType(), config)) {
-            return;
-        }
+    public static void chopTree(ChopSession session) {
+        Player player = session.getPlayer();
+        Config config = session.getConfig();
 
         if (config.getMustUseTool() && !isTool(player)) {
+            session.finish();
             return;
         }
 
-        // Add to processing set to prevent recursion
-        processingLocations.add(block.getLocation());
+        World world = session.getWorld();
+        Location origin = session.getOrigin();
+        int originX = origin.getBlockX();
+        int originY = origin.getBlockY();
+        int originZ = origin.getBlockZ();
 
-        // Call BlockBreakEvent for this block
-        BlockBreakEvent breakEvent = new BlockBreakEvent(block, player);
-        Bukkit.getPluginManager().callEvent(breakEvent);
-
-        if (!breakEvent.isCancelled()) {
-
-            Material originalLogType = block.getType();
-
-            // Break the block and update player stats
-            block.breakNaturally();
+        // Find the whole tree first, then break it as a single job under the per-tick budget
+        if (config.isChopTreeAsync()) {
+            // Capture the origin chunk on this thread, the scan itself runs on a worker thread
+            scanAsync(session, new SnapshotBlockSource(world, originX, originZ, config.getChopScanRadius()));
+        } else {
+            // The live world has no snapshot window, so the tree is only limited by the player's remaining blocks
+            session.start(TreeScanner.scan(world, originX, originY, originZ, session.getOriginType(), TreeScanner.liveSource(world),
+                    config, Integer.MAX_VALUE, session.isConnectedOnly(), session.getVisited(), session.getMaxLogs()));
+        }
+    }
 
-            LeafRemovalUtils.trackRemovedLog(block.getLocation(), player.getUniqueId().toString());
-
-            LeafRemovalUtils.processLeafRemoval(block, originalLogType, player, plugin, config, playerConfig,
-                    worldGuardEnabled, residenceEnabled, griefPreventionEnabled, landsEnabled,
-                    landsHook, residenceHook, griefPreventionHook, worldGuardHook);
-
-            if (TreeReplantUtils.isReplantEnabledForPlayer(player, config)) {
-                TreeReplantUtils.scheduleReplant(
-                        player,
-                        block,
-                        originalLogType,
-                        plugin,
-                        config,
-                        worldGuardEnabled,
-                        residenceEnabled,
-                        griefPreventionEnabled,
-                        landsEnabled,
-                        landsHook,
-                        residenceHook,
-                        griefPreventionHook,
-                        worldGuardHook
-                );
+    // Scans the tree on a worker thread. If it reached chunks that weren't captured yet,
+    // they are captured back on the thread that owns the origin and the tree is scanned again.
+    // A failing scan finishes the session, so it never stays registered.
+    private static void scanAsync(ChopSession session, SnapshotBlockSource source) {
+        AutoTreeChopPlus plugin = session.getPlugin();
+        Config config = session.getConfig();
+        Location origin = session.getOrigin();
+        Runnable scanTask = () -> {
+            Runnable next;
+            try {
+                LongHashSet visited = session.getVisited();
+                visited.clear();
+                ScannedTree tree = TreeScanner.scan(session.getWorld(), origin.getBlockX(), origin.getBlockY(), origin.getBlockZ(),
+                        session.getOriginType(), source, config, config.getChopScanRadius(), session.isConnectedOnly(),
+                        visited, session.getMaxLogs());
+                next = source.hasMissingChunks() ? () -> {
+                    source.captureMissing();
+                    scanAsync(session, source);
+                } : () -> session.start(tree);
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.WARNING, "Error while scanning the tree at " + origin, e);
+                next = session::finish;
             }
+            runAtOrigin(session, next);
+        };
 
-            if (config.getPlayBreakSound()) {
-                // Play wood breaking sound at the block's location
-                block.getWorld().playSound(block.getLocation(), org.bukkit.Sound.BLOCK_WOOD_BREAK, 1.0f, 1.0f);
+        try {
+            if (AutoTreeChopPlus.isFolia()) {
+                plugin.getServer().getAsyncScheduler().runNow(plugin, (task) -> scanTask.run());
+            } else {
+                Bukkit.getScheduler().runTaskAsynchronously(plugin, scanTask);
             }
+        } catch (Exception e) {
+            // E.g. IllegalPluginAccessException while the plugin is disabled, this is still the owning thread
+            plugin.getLogger().log(Level.WARNING, "Could not schedule the tree scan at " + origin, e);
+            session.finish();
+        }
+    }
 
-            playerConfig.incrementDailyBlocksBroken();
-            if (config.isToolDamage()) {
-                damageTool(tool, player, config.getToolDamageDecrease(), config);
+    // Runs the next step of an async scan on the thread that owns the origin, finishing the session if it fails
+    private static void runAtOrigin(ChopSession session, Runnable task) {
+        AutoTreeChopPlus plugin = session.getPlugin();
+        Runnable guarded = () -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.WARNING, "Error while chopping the tree at " + session.getOrigin(), e);
+                session.finish();
             }
-
-            // Process adjacent blocks
-            Runnable task = () -> {
-                for (int yOffset = -1; yOffset <= 1; yOffset++) {
-                    for (int xOffset = -1; xOffset <= 1; xOffset++) {
-                        for (int zOffset = -1; zOffset <= 1; zOffset++) {
-                            if (xOffset == 0 && yOffset == 0 && zOffset == 0) continue;
-
-                            Block relativeBlock = block.getRelative(xOffset, yOffset, zOffset);
-
-                            if (config.isStopChoppingIfDifferentTypes() && notSameType(block.getType(), relativeBlock.getType())) {
-                                continue;
-                            }
-                            if (ConnectedBlocks && blockNotConnected(block, relativeBlock)) {
-                                continue;
-                            }
-
-                            // Check limits before processing next block
-                            if (!PermissionUtils.hasVipUses(player, playerConfig, config) && playerConfig.getDailyUses() >= config.getMaxUsesPerDay()) {
-                                sendMessage(player, AutoTreeChopPlus.HIT_MAX_USAGE_MESSAGE);
-                                return;
-                            }
-                            if (!PermissionUtils.hasVipBlock(player, playerConfig, config) && playerConfig.getDailyBlocksBroken() >= config.getMaxBlocksPerDay()) {
-                                sendMessage(player, AutoTreeChopPlus.HIT_MAX_BLOCK_MESSAGE);
-                                return;
-                            }
-
-                            // Schedule next block processing
-                            if (AutoTreeChopPlus.isFolia()) {
-                                plugin.getServer().getRegionScheduler().run(plugin, relativeBlock.getLocation(),
-                                        (task2) -> chopTree(relativeBlock, player, ConnectedBlocks, tool, location, material, blockData, plugin, processingLocations, checkedLocations, config, playerConfig, worldGuardEnabled, residenceEnabled, griefPreventionEnabled, landsEnabled, landsHook, residenceHook, griefPreventionHook, worldGuardHook));
-                            } else {
-                                if (config.isChopTreeAsync()) {
-                                    Bukkit.getScheduler().runTaskAsynchronously(plugin, () ->
-                                            Bukkit.getScheduler().runTask(plugin, () ->
-                                                    chopTree(relativeBlock, player, ConnectedBlocks, tool, location, material, blockData, plugin, processingLocations, checkedLocations, config, playerConfig, worldGuardEnabled, residenceEnabled, griefPreventionEnabled, landsEnabled, landsHook, residenceHook, griefPreventionHook, worldGuardHook)));
-                                } else {
-                                    Bukkit.getScheduler().runTask(plugin, () ->
-                                            chopTree(relativeBlock, player, ConnectedBlocks, tool, location, material, blockData, plugin, processingLocations, checkedLocations, config, playerConfig, worldGuardEnabled, residenceEnabled, griefPreventionEnabled, landsEnabled, landsHook, residenceHook, griefPreventionHook, worldGuardHook));
-                                }
-                            }
-                        }
-                    }
-                }
-                // Remove from processing set after all adjacent blocks are handled
-                processingLocations.remove(block.getLocation());
-            };
-
-            // Execute the task based on configuration and environment
-            if (!AutoTreeChopPlus.isFolia() && config.isChopTreeAsync()) {
-                Bukkit.getScheduler().runTaskAsynchronously(plugin, task);
+        };
+        try {
+            if (AutoTreeChopPlus.isFolia()) {
+                plugin.getServer().getRegionScheduler().execute(plugin, session.getOrigin(), guarded);
             } else {
-                task.run();
+                Bukkit.getScheduler().runTask(plugin, guarded);
             }
-        } else {
-            processingLocations.remove(block.getLocation());
+        } catch (Exception e) {
+            // The plugin is being disabled, nothing runs on the owning thread any more. Nothing was broken yet,
+            // so there are no drops or tool damage to hand out and the session only has to be dropped.
+            plugin.getLogger().log(Level.WARNING, "Could not finish the tree scan at " + session.getOrigin(), e);
+            plugin.unregisterChopSession(session);
         }
     }
 
-    private static void damageTool(ItemStack tool, Player player, int amount, Config config) {
+    // Check limits before processing next block
+    public static boolean hitDailyLimit(ChopSession session) {
+        Player player = session.getPlayer();
+        PlayerConfig playerConfig = session.getPlayerConfig();
+        Config config = session.getConfig();
+        if (!PermissionUtils.hasVipUses(player, playerConfig, config) && playerConfig.getDailyUses() >= config.getMaxUsesPerDay()) {
+            sendMessage(player, AutoTreeChopPlus.HIT_MAX_USAGE_MESSAGE);
+            return true;
+        }
+        if (!PermissionUtils.hasVipBlock(player, playerConfig, config) && playerConfig.getDailyBlocksBroken() >= config.getMaxBlocksPerDay()) {
+            sendMessage(player, AutoTreeChopPlus.HIT_MAX_BLOCK_MESSAGE);
+            return true;
+        }
+        return false;
+    }
 
-        if (tool.getType().getMaxDurability() > 0 && tool.getItemMeta() instanceof Damageable damageableMeta) {
-            int unbreakingLevel = getUnbreakingLevel(tool);
+    /**
+     * Breaks one log of the session's tree
+     *
+     * @return true if the block was broken
+     */
+    public static boolean breakLog(ChopSession session, Block block) {
+        Player player = session.getPlayer();
+        Config config = session.getConfig();
+        Location location = block.getLocation();
 
-            for (int i = 0; i < amount; i++) {
-                if (shouldApplyDurabilityLoss(unbreakingLevel, config)) {
-                    int currentDamage = damageableMeta.getDamage();
-                    int newDamage = currentDamage + 1;
+        // Permission checks
+        if (!session.canBuild(location)) {
+            return false;
+        }
 
-                    if (newDamage >= tool.getType().getMaxDurability()) {
-                        player.getInventory().removeItem(tool); // Remove the item if it breaks
-                        break;
-                    } else {
-                        damageableMeta.setDamage(newDamage);
-                        tool.setItemMeta(damageableMeta);
-                    }
-                }
-            }
+        // The block may have changed since the tree was scanned
+        if (!isLog(block.getType(), config)) {
+            return false;
         }
-    }
 
-    // Get the level of Unbreaking enchantment (0 if none)
-    private static int getUnbreakingLevel(ItemStack item) {
-        if (item != null && item.hasItemMeta() && item.getItemMeta().hasEnchants()) {
-            return item.getEnchantmentLevel(Enchantment.DURABILITY);
+        // Mark the block so our own BlockBreakEvent is ignored by the listener
+        session.setProcessing(block);
+
+        // Call BlockBreakEvent for this block
+        BlockBreakEvent breakEvent = new BlockBreakEvent(block, player);
+        Bukkit.getPluginManager().callEvent(breakEvent);
+        session.clearProcessing();
+
+        if (breakEvent.isCancelled()) {
+            return false;
         }
-        return 0;
-    }
 
-    // Calculate if durability should be reduced based on Unbreaking level
-    private static boolean shouldApplyDurabilityLoss(int unbreakingLevel, Config config) {
-        if (unbreakingLevel <= 0) {
-            return true; // No Unbreaking enchantment
+        Material originalLogType = block.getType();
+
+        // Break the block and update player stats
+        DropCollector dropCollector = session.getDropCollector();
+        if (dropCollector != null) {
+            // Drops are handed out once the whole tree is down
+            dropCollector.add(block.getDrops(session.getTool(), player));
+            block.setType(Material.AIR);
+        } else {
+            block.breakNaturally();
         }
 
-        if (!config.getRespectUnbreaking()) {
-            return true; // If disable in config.yml
+        LeafRemovalUtils.processLeafRemoval(block, originalLogType, session);
+
+        if (TreeReplantUtils.isReplantEnabledForPlayer(player, config)) {
+            TreeReplantUtils.scheduleReplant(session, block, originalLogType);
         }
 
-        // Minecraft mechanic: 100/(level+1)% chance to reduce durability
-        return random.nextInt(100) < (100.0 / (unbreakingLevel + 1));
-    }
+        if (config.getPlayBreakSound()) {
+            // Sounds are sent in batches over the tree, once per tick
+            session.getEffects().logBroken(block);
+        }
 
-    // Check if player have Lands permission in this area
-    // It will return true if player have permission, and vice versa.
-    public static boolean landsCheck(Player player, @NotNull Location location, boolean landsEnabled, LandsHook landsHook) {
-        return !landsEnabled || landsHook.checkBuild(player, location);
+        session.getPlayerConfig().incrementDailyBlocksBroken();
+        if (config.isToolDamage()) {
+            session.damageTool();
+        }
+        return true;
     }
 
-    public static boolean wgCheck(Player player, Location location, boolean worldGuardEnabled, WorldGuardHook worldGuardHook) {
-        if (!worldGuardEnabled) {
+    /**
+     * Applies the durability loss of several broken blocks to the tool with a single meta write.
+     * The loss is sampled in one go instead of rolling the Unbreaking chance once per point of damage.
+     *
+     * @param blocks How many blocks were broken since the last call
+     * @return false if the tool broke
+     */
+    public static boolean applyToolDamage(ItemStack tool, Player player, int blocks, Config config) {
+        int maxDurability = tool.getType().getMaxDurability();
+        int trials = blocks * config.getToolDamageDecrease();
+        if (trials <= 0 || maxDurability <= 0 || !(tool.getItemMeta() instanceof Damageable damageableMeta)) {
             return true;
         }
-        return worldGuardHook.checkBuild(player, location);
-    }
 
-    public static boolean gfCheck(Player player, Location location, boolean griefPreventionEnabled, GriefPreventionHook griefPreventionHook) {
-        return !griefPreventionEnabled || griefPreventionHook.checkBuild(player, location);
-    }
+        int loss = sampleDurabilityLoss(trials, getUnbreakingLevel(tool), config);
+        if (loss == 0) {
+            return true;
+        }
 
-    // Check if the two blocks are adjacent to each other.
-    private static boolean blockNotConnected(Block block1, Block block2) {
-        if (block1.getX() == block2.getX() && block1.getY() == block2.getY() && Math.abs(block1.getZ() - block2.getZ()) == 1) {
+        int newDamage = damageableMeta.getDamage() + loss;
+        if (newDamage >= maxDurability) {
+            player.getInventory().removeItem(tool); // Remove the item if it breaks
             return false;
         }
-        if (block1.getX() == block2.getX() && Math.abs(block1.getY() - block2.getY()) == 1 && block1.getZ() == block2.getZ()) {
-            return false;
+        damageableMeta.setDamage(newDamage);
+        tool.setItemMeta(damageableMeta);
+        return true;
+    }
+
+    /**
+     * How much durability the tool has left, Integer.MAX_VALUE if it can't be damaged
+     */
+    public static int getRemainingDurability(ItemStack tool) {
+        int maxDurability = tool.getType().getMaxDurability();
+        if (maxDurability <= 0 || !(tool.getItemMeta() instanceof Damageable damageableMeta)) {
+            return Integer.MAX_VALUE;
+        }
+        return maxDurability - damageableMeta.getDamage();
+    }
+
+    // Get the level of Unbreaking enchantment (0 if none)
+    private static int getUnbreakingLevel(ItemStack item) {
+        if (item != null && item.hasItemMeta() && item.getItemMeta().hasEnchants()) {
+            return item.getEnchantmentLevel(Enchantment.DURABILITY);
         }
-        return Math.abs(block1.getX() - block2.getX()) != 1 || block1.getY() != block2.getY() || block1.getZ() != block2.getZ();
+        return 0;
     }
 
-    // Check if player have Residence permission in this area
-    // It will return true if player have permission, and vice versa.
-    static boolean resCheck(Player player, Location location, boolean residenceEnabled, ResidenceHook residenceHook) {
-        return !residenceEnabled || residenceHook.checkBuild(player, location);
+    // Number of points of damage out of the given trials that get through Unbreaking
+    private static int sampleDurabilityLoss(int trials, int unbreakingLevel, Config config) {
+        if (unbreakingLevel <= 0 || !config.getRespectUnbreaking()) {
+            return trials; // Every point counts without Unbreaking, or if disabled in config.yml
+        }
+        // Minecraft mechanic: 1/(level+1) chance to reduce durability, so the total loss is binomial
+        return sampleBinomial(trials, 1.0 / (unbreakingLevel + 1), ThreadLocalRandom.current());
     }
 
-    // Add a new method to check if two block types are the same
-    private static boolean notSameType(Material type1, Material type2) {
-        return type1 != type2;
+    // Inversion sampling, done in chunks so q^n never underflows (p is at most 0.5 here)
+    private static int sampleBinomial(int trials, double p, Random random) {
+        double q = 1.0 - p;
+        double s = p / q;
+        int successes = 0;
+        int left = trials;
+        while (left > 0) {
+            int n = Math.min(left, BINOMIAL_CHUNK);
+            left -= n;
+            double a = (n + 1) * s;
+            double r = Math.pow(q, n);
+            double u = random.nextDouble();
+            int x = 0;
+            while (u > r && x < n) {
+                u -= r;
+                x++;
+                r *= a / x - s;
+            }
+            successes += x;
+        }
+        return successes;
     }
 
     public static boolean isLog(Material material, Config config) {
@@ -295,7 +333,3 @@ public class TreeChopUtils {
         return false;
     }
 }
-
-
-
-
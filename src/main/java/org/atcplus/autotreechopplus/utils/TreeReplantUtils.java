@@ -10,10 +10,7 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.PlayerInventory;
 import org.atcplus.autotreechopplus.AutoTreeChopPlus;
 import org.atcplus.autotreechopplus.Config;
-import org.atcplus.autotreechopplus.hooks.GriefPreventionHook;
-import org.atcplus.autotreechopplus.hooks.LandsHook;
-import org.atcplus.autotreechopplus.hooks.ResidenceHook;
-import org.atcplus.autotreechopplus.hooks.WorldGuardHook;
+import org.atcplus.autotreechopplus.chop.ChopSession;
 
 public class TreeReplantUtils {
 
@@ -21,11 +18,10 @@ public class TreeReplantUtils {
      * Schedules a sapling replant at the given location after a delay
      * Called from TreeChopUtils after a log block is broken
      */
-    public static void scheduleReplant(Player player, Block brokenLogBlock, Material originalLogType, AutoTreeChopPlus plugin, Config config,
-                                       boolean worldGuardEnabled, boolean residenceEnabled,
-                                       boolean griefPreventionEnabled, boolean landsEnabled,
-                                       LandsHook landsHook, ResidenceHook residenceHook,
-                                       GriefPreventionHook griefPreventionHook, WorldGuardHook worldGuardHook) {
+    public static void scheduleReplant(ChopSession session, Block brokenLogBlock, Material originalLogType) {
+        Player player = session.getPlayer();
+        AutoTreeChopPlus plugin = session.getPlugin();
+        Config config = session.getConfig();
 
         // Check if auto-replant is enabled
         if (!config.isAutoReplantEnabled()) {
@@ -53,9 +49,7 @@ public class TreeReplantUtils {
         // Schedule the replanting task
         Runnable replantTask = () -> {
             // Double-check permissions at plant time (in case they changed)
-            if (!hasReplantPermission(player, plantLocation, worldGuardEnabled, residenceEnabled,
-                    griefPreventionEnabled, landsEnabled, landsHook, residenceHook,
-                    griefPreventionHook, worldGuardHook)) {
+            if (!session.canBuild(plantLocation)) {
                 return;
             }
 
@@ -164,24 +158,6 @@ public class TreeReplantUtils {
         return false;
     }
 
-    /**
-     * Checks if the player has permission to replant at the given location
-     * Uses the same protection plugin checks as TreeChopUtils
-     */
-    private static boolean hasReplantPermission(Player player, Location location,
-                                                boolean worldGuardEnabled, boolean residenceEnabled,
-                                                boolean griefPreventionEnabled, boolean landsEnabled,
-                                                LandsHook landsHook, ResidenceHook residenceHook,
-                                                GriefPreventionHook griefPreventionHook,
-                                                WorldGuardHook worldGuardHook) {
-
-        // Use the same permission checks as TreeChopUtils
-        return TreeChopUtils.resCheck(player, location, residenceEnabled, residenceHook) &&
-                TreeChopUtils.landsCheck(player, location, landsEnabled, landsHook) &&
-                TreeChopUtils.gfCheck(player, location, griefPreventionEnabled, griefPreventionHook) &&
-                TreeChopUtils.wgCheck(player, location, worldGuardEnabled, worldGuardHook);
-    }
-
     /**
      * Checks if auto-replant is enabled for the given player
      * Can be extended to add per-player replant settings